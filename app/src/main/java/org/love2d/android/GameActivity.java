@@ -30,6 +30,7 @@ import android.graphics.Rect;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.DisplayMetrics;
@@ -48,10 +49,29 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class GameActivity extends SDLActivity {
     private static final String TAG = "GameActivity";
     public static final int RECORD_AUDIO_REQUEST_CODE = 3;
+    // Uptime of the tap which launched the game, if any, to measure how long the game took to show.
+    public static final String EXTRA_LAUNCH_TIME = "org.love2d.android.LAUNCH_TIME";
+    // Longest time the game waits for the lookup of its cached copy before using its URI.
+    private static final long CACHE_LOOKUP_TIMEOUT_MS = 1000;
+
+    // Native libraries, in load order. The launcher may load them ahead of time.
+    static final String[] LIBRARIES = {
+        "c++_shared",
+        "SDL3",
+        "oboe",
+        "openal",
+        "luajit",
+        "liblove",
+        "love",
+    };
 
     protected Vibrator vibrator;
     protected boolean shortEdgesMode;
@@ -59,6 +79,10 @@ public class GameActivity extends SDLActivity {
     private Uri delayedUri = null;
     private String[] args;
     private boolean isFused;
+    private long launchTime;
+    // Cache of the content URI game, and the lookup of its local copy until the game starts.
+    private GameCache gameCache;
+    private Future<String> cachedGame;
 
     private static native void nativeSetDefaultStreamValues(int sampleRate, int framesPerBurst);
 
@@ -74,19 +98,25 @@ public class GameActivity extends SDLActivity {
 
     @Override
     protected String[] getLibraries() {
-        return new String[]{
-            "c++_shared",
-            "SDL3",
-            "oboe",
-            "openal",
-            "luajit",
-            "liblove",
-            "love",
-        };
+        return LIBRARIES;
     }
 
     @Override
     protected String[] getArguments() {
+        // Called on the SDL thread, the lookup ran while SDL was set up
+        if (cachedGame != null) {
+            try {
+                String cachedPath = cachedGame.get(CACHE_LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (cachedPath != null) {
+                    args = new String[]{cachedPath};
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                Log.w(TAG, "Opening the game through its URI, no cached copy found in time", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            cachedGame = null;
+        }
         return args;
     }
 
@@ -104,8 +134,11 @@ public class GameActivity extends SDLActivity {
         handleIntent(intent, true);
         // Prevent SDL sending filedropped event. Let us do that instead.
         intent.setData(null);
+        launchTime = intent.getLongExtra(EXTRA_LAUNCH_TIME, 0);
 
+        long start = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
+        Log.d(TAG, "SDL set up in " + (SystemClock.uptimeMillis() - start) + "ms");
 
         if (mBrokenLibraries) {
             return;
@@ -127,6 +160,21 @@ public class GameActivity extends SDLActivity {
         }
     }
 
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+
+        // The window gets focus once its first frame is shown
+        if (hasFocus && launchTime != 0) {
+            Log.d(TAG, "Game shown " + (SystemClock.uptimeMillis() - launchTime) + "ms after the launch tap");
+            launchTime = 0;
+        }
+        if (hasFocus && gameCache != null) {
+            gameCache.onGameShown();
+            gameCache = null;
+        }
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -422,8 +470,11 @@ public class GameActivity extends SDLActivity {
 
         if (scheme != null) {
             if (scheme.equals("content")) {
-                // Pass content URI as-is.
+                // Prefer a local copy of the game if it's cached, pass content URI as-is otherwise.
+                // The copy is looked up off the main thread, while SDL sets up.
                 args = new String[]{game.toString()};
+                gameCache = new GameCache(this);
+                cachedGame = gameCache.openAsync(game);
             } else if (scheme.equals("file")) {
                 // Regular file, pass as-is.
                 args = new String[]{path};
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Optional local copies of .love archives opened through content URIs, so relaunching a game
+ * reads it from app storage instead of going through its provider again.
+ * <p>
+ * Copies are stored by the SHA-256 of their content, so the same archive reached through
+ * several URIs is only stored once per name. They keep the name of the archive, which LÖVE may
+ * use as the save identity, so a copy is a directory named by hash holding a file per name. An index maps every URI to its copy together with the size and last
+ * modified time the provider reported, so a copy is only used while the document is unchanged.
+ * Providers which don't report a last modified time are never cached.
+ * <p>
+ * The copies are kept under a byte budget, evicting the least recently launched ones first. A
+ * budget of 0, the default, disables the cache.
+ * <p>
+ * Looking up a copy queries the provider and reads the index, so it's done in the background
+ * while the game starts. A missing copy is only made once the game is shown, so it doesn't
+ * compete with LÖVE reading the same archive.
+ */
+class GameCache {
+    private static final String TAG = "GameCache";
+    private static final String PREFS_NAME = "GameCache";
+    private static final String BUDGET = "budget";
+    private static final String DIR_NAME = "games";
+    private static final String INDEX_NAME = "index";
+
+    private static final int MAGIC = 0x4C4F5643; // "LOVC"
+    private static final int VERSION = 1;
+
+    private static final String[] PROJECTION = {
+        OpenableColumns.DISPLAY_NAME,
+        OpenableColumns.SIZE,
+        DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+    };
+
+    // Copies are made in the background while the game runs from its content URI.
+    private static final ExecutorService COPIER = Executors.newSingleThreadExecutor();
+    // Looks up copies while the game activity sets up.
+    private static final ExecutorService LOOKUP = Executors.newSingleThreadExecutor();
+    // Guards the index, which may be used by a launch while a copy finishes.
+    private static final Object LOCK = new Object();
+
+    private static class Entry {
+        public String uri;
+        public String name;
+        public long size;
+        public long lastModified;
+        public String hash;
+        public long lastUsed;
+    }
+
+    private final ContentResolver resolver;
+    private final File dir;
+    private final AtomicFile indexFile;
+    private final long budget;
+
+    // Copy found missing by open(), waiting for the game to be shown.
+    private Runnable pendingCopy;
+    private boolean gameShown = false;
+
+    GameCache(Context context) {
+        resolver = context.getContentResolver();
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        indexFile = new AtomicFile(new File(dir, INDEX_NAME));
+        budget = getBudget(context);
+    }
+
+    /**
+     * @return the most bytes the copies may use, 0 if the cache is disabled
+     */
+    static long getBudget(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getLong(BUDGET, 0);
+    }
+
+    /**
+     * Set the most bytes the copies may use. Copies over the new budget are evicted by the next
+     * launch, and all of them are deleted when the cache is disabled.
+     */
+    static void setBudget(Context context, long budget) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putLong(BUDGET, budget).apply();
+
+        if (budget == 0) {
+            File dir = new File(context.getCacheDir(), DIR_NAME);
+            COPIER.execute(() -> {
+                synchronized (LOCK) {
+                    deleteRecursively(dir);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the local copy of a game in the background, see {@link #open}.
+     */
+    public Future<String> openAsync(Uri uri) {
+        return LOOKUP.submit(() -> open(uri));
+    }
+
+    /**
+     * Start the copy found missing by {@link #open}, now or once the lookup is done. Called once
+     * the game is shown.
+     */
+    public synchronized void onGameShown() {
+        gameShown = true;
+        if (pendingCopy != null) {
+            COPIER.execute(pendingCopy);
+            pendingCopy = null;
+        }
+    }
+
+    private synchronized void queueCopy(Runnable copy) {
+        if (gameShown) {
+            COPIER.execute(copy);
+        } else {
+            pendingCopy = copy;
+        }
+    }
+
+    /**
+     * Get the local copy of a game, and copy it once the game is shown if there's none yet.
+     *
+     * @return the path of an up to date copy of the game, or null if the game must be opened
+     * through its URI
+     */
+    public String open(Uri uri) {
+        if (budget == 0) {
+            return null;
+        }
+
+        long start = SystemClock.uptimeMillis();
+        Entry document = queryDocument(uri);
+        if (document == null || document.lastModified == 0) {
+            return null;
+        }
+
+        synchronized (LOCK) {
+            HashMap<String, Entry> entries = loadIndex();
+            Entry cached = entries.get(document.uri);
+
+            if (isUpToDate(cached, document)) {
+                // Also applies a smaller budget
+                cached.lastUsed = System.currentTimeMillis();
+                evict(entries);
+                saveIndex(entries);
+
+                if (entries.containsKey(cached.uri)) {
+                    Log.d(TAG, "Using copy of " + uri + ", found in " + (SystemClock.uptimeMillis() - start) + "ms");
+                    return getFile(cached).getPath();
+                }
+            }
+        }
+
+        if (document.size <= budget) {
+            queueCopy(() -> copy(uri, document));
+        }
+        return null;
+    }
+
+    private boolean isUpToDate(Entry cached, Entry document) {
+        // The copy may have been deleted along with the rest of the app cache
+        return cached != null && cached.size == document.size && cached.lastModified == document.lastModified &&
+            getFile(cached).length() == cached.size;
+    }
+
+    private Entry queryDocument(Uri uri) {
+        try (Cursor cursor = resolver.query(uri, PROJECTION, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+
+            Entry entry = new Entry();
+            entry.uri = uri.toString();
+            entry.name = cursor.getString(0);
+            entry.size = cursor.isNull(1) ? -1 : cursor.getLong(1);
+            // Not part of OpenableColumns, some providers lack it
+            entry.lastModified = cursor.isNull(2) ? 0 : cursor.getLong(2);
+
+            if (entry.name == null || entry.size < 0 || entry.name.contains("/")) {
+                return null;
+            }
+            return entry;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to query " + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Copy a game while hashing it, then add it to the index and evict the copies over budget.
+     */
+    private void copy(Uri uri, Entry document) {
+        long start = SystemClock.uptimeMillis();
+        File temp = new File(dir, "copy.tmp");
+
+        synchronized (LOCK) {
+            // Launched again while the previous copy was queued
+            if (isUpToDate(loadIndex().get(document.uri), document)) {
+                return;
+            }
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            dir.mkdirs();
+
+            try (InputStream in = resolver.openInputStream(uri);
+                 OutputStream out = new FileOutputStream(temp)) {
+                if (in == null) {
+                    return;
+                }
+
+                byte[] buffer = new byte[65536];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                }
+            }
+
+            if (temp.length() != document.size) {
+                // Changed while it was copied
+                return;
+            }
+
+            document.hash = toHex(digest.digest());
+            document.lastUsed = System.currentTimeMillis();
+
+            synchronized (LOCK) {
+                File file = getFile(document);
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                if (!file.exists() && !temp.renameTo(file)) {
+                    return;
+                }
+
+                HashMap<String, Entry> entries = loadIndex();
+                Entry replaced = entries.put(document.uri, document);
+                if (replaced != null && !isShared(entries, replaced)) {
+                    // The document changed, its old file would only take space
+                    File old = getFile(replaced);
+                    old.delete();
+                    old.getParentFile().delete();
+                }
+                evict(entries);
+                saveIndex(entries);
+            }
+
+            Log.d(TAG, "Copied " + document.size + " bytes of " + uri + " in " + (SystemClock.uptimeMillis() - start) + "ms");
+        } catch (IOException | RuntimeException | NoSuchAlgorithmException e) {
+            Log.w(TAG, "Failed to copy " + uri, e);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return whether another entry uses the same file as the given one
+     */
+    private static boolean isShared(HashMap<String, Entry> entries, Entry entry) {
+        for (Entry other : entries.values()) {
+            if (other.hash.equals(entry.hash) && other.name.equals(entry.name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete the least recently used copies until the rest fit in the budget.
+     */
+    private void evict(HashMap<String, Entry> entries) {
+        // Copies are shared by hash, a copy was last used when any of its URIs was. A copy uses
+        // the size of the archive once per name it's stored under.
+        HashMap<String, Entry> copies = new HashMap<>();
+        HashMap<String, Long> sizes = new HashMap<>();
+        HashSet<String> files = new HashSet<>();
+        long total = 0;
+
+        for (Entry entry : entries.values()) {
+            Entry copy = copies.get(entry.hash);
+            if (copy == null || entry.lastUsed > copy.lastUsed) {
+                copies.put(entry.hash, entry);
+            }
+
+            if (files.add(entry.hash + '/' + entry.name)) {
+                Long size = sizes.get(entry.hash);
+                sizes.put(entry.hash, (size != null ? size : 0) + entry.size);
+                total += entry.size;
+            }
+        }
+
+        ArrayList<Entry> order = new ArrayList<>(copies.values());
+        Collections.sort(order, (a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+
+        for (int i = 0; i < order.size() && total > budget; i++) {
+            String hash = order.get(i).hash;
+            deleteRecursively(new File(dir, hash));
+            total -= sizes.get(hash);
+
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().hash.equals(hash)) {
+                    iterator.remove();
+                }
+            }
+            Log.d(TAG, "Evicted copy " + hash);
+        }
+    }
+
+    private File getFile(Entry entry) {
+        return new File(new File(dir, entry.hash), entry.name);
+    }
+
+    private HashMap<String, Entry> loadIndex() {
+        HashMap<String, Entry> entries = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(indexFile.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return entries;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry();
+                entry.uri = in.readUTF();
+                entry.name = in.readUTF();
+                entry.size = in.readLong();
+                entry.lastModified = in.readLong();
+                entry.hash = in.readUTF();
+                entry.lastUsed = in.readLong();
+                entries.put(entry.uri, entry);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable cache index", e);
+            entries.clear();
+        }
+
+        return entries;
+    }
+
+    private void saveIndex(HashMap<String, Entry> entries) {
+        FileOutputStream stream = null;
+        try {
+            dir.mkdirs();
+            stream = indexFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.uri);
+                out.writeUTF(entry.name);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.hash);
+                out.writeLong(entry.lastUsed);
+            }
+
+            out.flush();
+            indexFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache index", e);
+            if (stream != null) {
+                indexFile.failWrite(stream);
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
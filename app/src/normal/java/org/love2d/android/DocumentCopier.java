@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies files and directory trees for {@link LoveDocumentsProvider}.
+ * <p>
+ * File content is moved with {@link FileChannel#transferTo}, which lets the kernel copy it
+ * without going through Java buffers. Directory trees are created first, then their files are
+ * copied by a few threads at once, as trees of small save files are bound by per file overhead
+ * rather than bandwidth. Copies stop at the next chunk or file once canceled, and whatever was
+ * copied is deleted when a copy fails.
+ * <p>
+ * Symbolic links are copied as links, never followed, so a link to one of its parents can't
+ * make a copy endless. Special files like pipes are skipped.
+ */
+class DocumentCopier {
+    private static final String TAG = "DocumentCopier";
+
+    // Bytes transferred between cancellation checks.
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_WORKERS = 4;
+
+    private final CancellationSignal signal;
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private int filesCopied = 0;
+
+    /**
+     * @param signal cancels the copy, may be null
+     */
+    DocumentCopier(CancellationSignal signal) {
+        this.signal = signal;
+    }
+
+    /**
+     * Copy a file or a directory tree to a target which must not exist yet.
+     */
+    public void copy(File source, File target) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+
+        try {
+            StructStat stat = lstat(source);
+            if (OsConstants.S_ISDIR(stat.st_mode)) {
+                copyTree(source, target);
+            } else if (OsConstants.S_ISLNK(stat.st_mode)) {
+                copyLink(source, target);
+            } else if (OsConstants.S_ISREG(stat.st_mode)) {
+                copyFile(source, target);
+                filesCopied = 1;
+            } else {
+                throw new IOException("Can't copy special file " + source);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteRecursively(target);
+            throw e;
+        }
+
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        long bytes = bytesCopied.get();
+        Log.d(TAG, "Copied " + filesCopied + " files, " + bytes + " bytes in " + elapsed + "ms (" +
+            bytes * 1000 / elapsed / 1024 + " KiB/s, " + filesCopied * 1000L / elapsed + " files/s)");
+    }
+
+    private void copyTree(File source, File target) throws IOException {
+        // A directory copied into itself would copy its own copy
+        String sourcePath = source.getCanonicalPath() + File.separator;
+        if (target.getCanonicalPath().startsWith(sourcePath)) {
+            throw new IOException("Can't copy " + source + " into itself");
+        }
+
+        // Create the directories and links while listing the files, so workers only copy files
+        ArrayList<File[]> files = new ArrayList<>();
+        ArrayDeque<File[]> pending = new ArrayDeque<>();
+        pending.add(new File[]{source, target});
+
+        while (!pending.isEmpty()) {
+            throwIfCanceled();
+            File[] directory = pending.removeFirst();
+            if (!directory[1].mkdir()) {
+                throw new IOException("Failed to create " + directory[1]);
+            }
+
+            File[] children = directory[0].listFiles();
+            if (children == null) {
+                throw new IOException("Failed to list " + directory[0]);
+            }
+
+            for (File child : children) {
+                File[] pair = {child, new File(directory[1], child.getName())};
+                StructStat stat;
+                try {
+                    stat = lstat(child);
+                } catch (FileNotFoundException e) {
+                    // Removed in the meantime
+                    continue;
+                }
+
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    pending.add(pair);
+                } else if (OsConstants.S_ISLNK(stat.st_mode)) {
+                    copyLink(pair[0], pair[1]);
+                } else if (OsConstants.S_ISREG(stat.st_mode)) {
+                    files.add(pair);
+                }
+            }
+        }
+
+        if (files.isEmpty()) {
+            return;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(files.size(),
+            Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors())));
+        try {
+            ArrayList<Future<?>> copies = new ArrayList<>(files.size());
+            for (File[] pair : files) {
+                copies.add(workers.submit(() -> {
+                    copyFile(pair[0], pair[1]);
+                    return null;
+                }));
+            }
+
+            for (Future<?> copy : copies) {
+                copy.get();
+                filesCopied++;
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } finally {
+            // Stops the remaining copies of a failed tree, which must be over before the tree
+            // is deleted or they could leave files behind
+            workers.shutdownNow();
+            awaitTermination(workers);
+        }
+    }
+
+    private static void awaitTermination(ExecutorService workers) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void copyLink(File source, File target) throws IOException {
+        try {
+            Os.symlink(Os.readlink(source.getPath()), target.getPath());
+        } catch (ErrnoException e) {
+            throw new IOException("Failed to copy link " + source, e);
+        }
+    }
+
+    private static StructStat lstat(File file) throws IOException {
+        try {
+            return Os.lstat(file.getPath());
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOENT) {
+                throw new FileNotFoundException(file + " doesn't exist");
+            }
+            throw new IOException("Failed to stat " + file, e);
+        }
+    }
+
+    private void copyFile(File source, File target) throws IOException {
+        throwIfCanceled();
+
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long size = in.size();
+            long position = 0;
+
+            while (position < size) {
+                throwIfCanceled();
+                long transferred = in.transferTo(position, Math.min(CHUNK_SIZE, size - position), out);
+                if (transferred <= 0) {
+                    // Shrunk while it was copied
+                    break;
+                }
+                position += transferred;
+                bytesCopied.addAndGet(transferred);
+            }
+        }
+    }
+
+    private void throwIfCanceled() {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Delete a file or a directory with its content. Links are deleted, not what they point to.
+     */
+    static void deleteRecursively(File file) {
+        try {
+            if (!OsConstants.S_ISDIR(Os.lstat(file.getPath()).st_mode)) {
+                file.delete();
+                return;
+            }
+        } catch (ErrnoException e) {
+            // Already gone
+            return;
+        }
+
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
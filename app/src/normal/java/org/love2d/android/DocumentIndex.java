@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.os.Build;
+import android.os.FileObserver;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the file names under the base directory of {@link LoveDocumentsProvider}, so
+ * searching costs in proportion to the matches instead of the size of the tree.
+ * <p>
+ * Names are lowercased and split into tokens at anything which isn't a letter or a digit. Tokens
+ * are kept in a sorted map, so a query word matches every token it's a prefix of with a single
+ * range lookup. The index is stored in the app private storage and loaded on first use, then
+ * rebuilt in the background to catch changes made while the app wasn't running. Searches made
+ * before there is any index walk the tree instead. It is kept current by the provider for its
+ * own changes, and by file observers on every directory for changes made by games or other apps.
+ * <p>
+ * Every observer takes one of the inotify watches, which are limited per user. Past a few
+ * thousand directories the others aren't watched, and the index is rebuilt periodically to catch
+ * up with their changes instead.
+ * <p>
+ * Paths are relative to the base directory. Methods are thread-safe.
+ */
+class DocumentIndex {
+    private static final String TAG = "DocumentIndex";
+    private static final String FILE_NAME = "document_index.idx";
+
+    private static final int MAGIC = 0x4C4F5644; // "LOVD"
+    private static final int VERSION = 1;
+
+    // Changes are saved once they stop for this long.
+    private static final long SAVE_DELAY_MS = 2000;
+    // Most directories watched, leaving most of the inotify watches of the app to others.
+    private static final int MAX_WATCHED_DIRECTORIES = 2048;
+    // Time between rebuilds when some directories aren't watched.
+    private static final long REBUILD_INTERVAL_MS = 10 * 60 * 1000;
+
+    private static final int OBSERVED_EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+        FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+
+    private final File baseDir;
+    private final AtomicFile file;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final CountDownLatch ready = new CountDownLatch(1);
+
+    // Relative paths of the indexed files, and of the directories under the base directory.
+    private final HashSet<String> files = new HashSet<>();
+    private final HashMap<String, FileObserver> directories = new HashMap<>();
+    // Files by token of their name.
+    private final TreeMap<String, HashSet<String>> tokens = new TreeMap<>();
+
+    private boolean started = false;
+    private boolean saveScheduled = false;
+    // Set when a directory couldn't be watched, so changes in it are only seen by rebuilds.
+    private boolean overWatchLimit = false;
+    private boolean rebuildScheduled = false;
+
+    DocumentIndex(File baseDir, File dataDir) {
+        this.baseDir = baseDir;
+        file = new AtomicFile(new File(dataDir, FILE_NAME));
+    }
+
+    /**
+     * Load the stored index and start rebuilding it in the background, unless that was done
+     * already. Only called when the index is needed, so launching a game doesn't watch files.
+     */
+    public void start() {
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+        }
+
+        if (load()) {
+            ready.countDown();
+        }
+        worker.execute(this::build);
+    }
+
+    /**
+     * Find the files whose name has a token starting with every word of the query. Files
+     * matching whole tokens rank first, then files with shorter names.
+     *
+     * @param offset how many of the best matches to skip
+     * @param limit  most matches to return
+     * @return the relative paths of the matching files
+     */
+    public List<String> search(String query, int offset, int limit) {
+        start();
+
+        ArrayList<String> words = tokenize(query, false);
+        if (words.isEmpty()) {
+            // Names made of symbols only are matched by their whole name
+            words = tokenize(query, true);
+        }
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        HashSet<String> candidates = new HashSet<>();
+        if (ready.getCount() > 0) {
+            // No index yet, the caller is a binder thread which must not wait for the build
+            walk("", candidates, new HashSet<>(), false);
+        } else {
+            synchronized (this) {
+                // Candidates are the files matching the first word, the other words narrow
+                // them down by looking at their own names
+                String first = words.get(0);
+                for (HashSet<String> paths : tokens.subMap(first, first + Character.MAX_VALUE).values()) {
+                    candidates.addAll(paths);
+                }
+            }
+        }
+
+        ArrayList<String> matches = new ArrayList<>();
+        HashMap<String, Integer> scores = new HashMap<>();
+        for (String candidate : candidates) {
+            int score = score(getName(candidate), words);
+            if (score > 0) {
+                scores.put(candidate, score);
+                matches.add(candidate);
+            }
+        }
+
+        Collections.sort(matches, (a, b) -> {
+            int result = Integer.compare(scores.get(b), scores.get(a));
+            if (result == 0) {
+                result = Integer.compare(getName(a).length(), getName(b).length());
+            }
+            return result != 0 ? result : a.compareTo(b);
+        });
+
+        int from = Math.min(offset, matches.size());
+        return new ArrayList<>(matches.subList(from, Math.min(matches.size(), from + limit)));
+    }
+
+    /**
+     * @return 2 for every word which is a token of the name, 1 for every word which only starts
+     * one, or 0 if a word matches no token
+     */
+    private static int score(String name, ArrayList<String> words) {
+        ArrayList<String> nameTokens = tokenize(name, true);
+        int score = 0;
+
+        for (String word : words) {
+            int wordScore = 0;
+            for (String token : nameTokens) {
+                if (token.equals(word)) {
+                    wordScore = 2;
+                    break;
+                } else if (token.startsWith(word)) {
+                    wordScore = 1;
+                }
+            }
+
+            if (wordScore == 0) {
+                return 0;
+            }
+            score += wordScore;
+        }
+        return score;
+    }
+
+    /**
+     * Add a file, or a directory with its content, created by the provider.
+     */
+    public void onAdded(File added) {
+        if (isStarted()) {
+            worker.execute(() -> addTree(getRelativePath(added)));
+        }
+    }
+
+    /**
+     * Remove a file, or a directory with its content, deleted by the provider.
+     */
+    public void onRemoved(File removed) {
+        if (isStarted()) {
+            worker.execute(() -> removeTree(getRelativePath(removed)));
+        }
+    }
+
+    private synchronized boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Walk the whole tree into a fresh index, then swap it in. Directories are watched before
+     * they are listed, so the events of changes the walk misses are queued behind it on the
+     * worker and applied to the new index.
+     */
+    private void build() {
+        long start = SystemClock.elapsedRealtime();
+        HashSet<String> foundFiles = new HashSet<>();
+        HashSet<String> foundDirectories = new HashSet<>();
+
+        synchronized (this) {
+            overWatchLimit = false;
+        }
+        walk("", foundFiles, foundDirectories, true);
+
+        synchronized (this) {
+            files.clear();
+            tokens.clear();
+            for (String path : foundFiles) {
+                addFile(path);
+            }
+
+            // Stop watching the directories which are gone
+            Iterator<Map.Entry<String, FileObserver>> iterator = directories.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, FileObserver> directory = iterator.next();
+                if (!foundDirectories.contains(directory.getKey())) {
+                    directory.getValue().stopWatching();
+                    iterator.remove();
+                }
+            }
+
+            if (overWatchLimit) {
+                Log.w(TAG, "Watching " + directories.size() + " of " + foundDirectories.size() +
+                    " directories, rebuilding every " + REBUILD_INTERVAL_MS / 1000 + "s");
+                scheduleRebuild();
+            }
+        }
+
+        ready.countDown();
+        save();
+        Log.d(TAG, "Indexed " + foundFiles.size() + " files in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    /**
+     * @param watch whether to watch the directories before listing them
+     */
+    private void walk(String root, HashSet<String> foundFiles, HashSet<String> foundDirectories, boolean watch) {
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.add(root);
+
+        while (!pending.isEmpty()) {
+            String directory = pending.removeFirst();
+            foundDirectories.add(directory);
+            if (watch) {
+                synchronized (this) {
+                    if (!directories.containsKey(directory)) {
+                        watch(directory);
+                    }
+                }
+            }
+
+            File[] children = getFile(directory).listFiles();
+            if (children == null) {
+                continue;
+            }
+
+            for (File child : children) {
+                String path = directory.isEmpty() ? child.getName() : directory + '/' + child.getName();
+                if (child.isDirectory()) {
+                    pending.add(path);
+                } else {
+                    foundFiles.add(path);
+                }
+            }
+        }
+    }
+
+    private void addTree(String path) {
+        File added = getFile(path);
+        if (!added.isDirectory()) {
+            synchronized (this) {
+                addFile(path);
+                onChanged();
+            }
+            return;
+        }
+
+        HashSet<String> foundFiles = new HashSet<>();
+        walk(path, foundFiles, new HashSet<>(), true);
+
+        synchronized (this) {
+            for (String file : foundFiles) {
+                addFile(file);
+            }
+            if (overWatchLimit) {
+                scheduleRebuild();
+            }
+            onChanged();
+        }
+    }
+
+    private synchronized void removeTree(String path) {
+        String prefix = path + '/';
+
+        // Only the removed file, or the content of a removed directory
+        if (!removeFile(path)) {
+            for (String file : new ArrayList<>(files)) {
+                if (file.startsWith(prefix)) {
+                    removeFile(file);
+                }
+            }
+        }
+
+        Iterator<Map.Entry<String, FileObserver>> iterator = directories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, FileObserver> directory = iterator.next();
+            if (directory.getKey().equals(path) || directory.getKey().startsWith(prefix)) {
+                directory.getValue().stopWatching();
+                iterator.remove();
+            }
+        }
+
+        onChanged();
+    }
+
+    // Must be called with the lock held.
+
+    private void addFile(String path) {
+        if (!files.add(path)) {
+            return;
+        }
+
+        for (String token : tokenize(getName(path), true)) {
+            HashSet<String> paths = tokens.get(token);
+            if (paths == null) {
+                paths = new HashSet<>();
+                tokens.put(token, paths);
+            }
+            paths.add(path);
+        }
+    }
+
+    private boolean removeFile(String path) {
+        if (!files.remove(path)) {
+            return false;
+        }
+
+        for (String token : tokenize(getName(path), true)) {
+            HashSet<String> paths = tokens.get(token);
+            if (paths != null) {
+                paths.remove(path);
+                if (paths.isEmpty()) {
+                    tokens.remove(token);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void onChanged() {
+        if (!saveScheduled) {
+            saveScheduled = true;
+            worker.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuildScheduled) {
+            rebuildScheduled = true;
+            worker.schedule(() -> {
+                synchronized (this) {
+                    rebuildScheduled = false;
+                }
+                build();
+            }, REBUILD_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void watch(String directory) {
+        if (directories.size() >= MAX_WATCHED_DIRECTORIES) {
+            overWatchLimit = true;
+            return;
+        }
+
+        FileObserver observer = createObserver(directory);
+        observer.startWatching();
+        directories.put(directory, observer);
+    }
+
+    private FileObserver createObserver(String directory) {
+        File watched = getFile(directory);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new FileObserver(watched, OBSERVED_EVENTS) {
+                @Override
+                public void onEvent(int event, String name) {
+                    onFileEvent(directory, event, name);
+                }
+            };
+        }
+
+        return new FileObserver(watched.getPath(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String name) {
+                onFileEvent(directory, event, name);
+            }
+        };
+    }
+
+    private void onFileEvent(String directory, int event, String name) {
+        if (name == null) {
+            return;
+        }
+
+        String path = directory.isEmpty() ? name : directory + '/' + name;
+        if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+            worker.execute(() -> addTree(path));
+        } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+            worker.execute(() -> removeTree(path));
+        }
+    }
+
+    private boolean load() {
+        long start = SystemClock.elapsedRealtime();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+
+            int count = in.readInt();
+            ArrayList<String> paths = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                paths.add(in.readUTF());
+            }
+
+            synchronized (this) {
+                for (String path : paths) {
+                    addFile(path);
+                }
+            }
+
+            Log.d(TAG, "Loaded " + count + " files in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            return true;
+        } catch (FileNotFoundException e) {
+            // Not built yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable document index", e);
+        }
+        return false;
+    }
+
+    private void save() {
+        ArrayList<String> paths;
+        synchronized (this) {
+            saveScheduled = false;
+            paths = new ArrayList<>(files);
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(paths.size());
+            for (String path : paths) {
+                out.writeUTF(path);
+            }
+
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write document index", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private File getFile(String path) {
+        return path.isEmpty() ? baseDir : new File(baseDir, path);
+    }
+
+    private String getRelativePath(File file) {
+        String path = file.getAbsolutePath();
+        String basePath = baseDir.getAbsolutePath();
+        return path.length() > basePath.length() ? path.substring(basePath.length() + 1) : "";
+    }
+
+    private static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Split a name into lowercase tokens.
+     *
+     * @param whole also add the whole name as a token, so names can be found by their start
+     *              whatever characters they contain
+     */
+    private static ArrayList<String> tokenize(String name, boolean whole) {
+        ArrayList<String> result = new ArrayList<>();
+        String lower = name.toLowerCase(Locale.ROOT).trim();
+        int start = -1;
+
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean part = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (part && start < 0) {
+                start = i;
+            } else if (!part && start >= 0) {
+                result.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+
+        if (whole && !lower.isEmpty() && (result.size() != 1 || !result.get(0).equals(lower))) {
+            result.add(lower);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.database.AbstractCursor;
+import android.database.CursorWindow;
+import android.provider.DocumentsContract.Document;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Children of a directory of {@link LoveDocumentsProvider}, only turned into rows when they are
+ * read.
+ * <p>
+ * Only the names of the children are read up front, so the time to the first rows doesn't
+ * depend on the size of the directory. Children are stat'ed when their row is built, and windows
+ * sent to other processes only hold a bounded number of rows. Sorting by size or last modified
+ * time is the exception, as it needs the stat of every child.
+ * <p>
+ * The count of a cursor can't change once it's sent to a client, so a child removed since it was
+ * listed keeps its row, with its document ID and name but without the columns of its stat.
+ */
+class DocumentListCursor extends AbstractCursor {
+    // Most rows copied to a window at once, the client asks for another window past them.
+    private static final int WINDOW_ROWS = 256;
+
+    interface RowLoader {
+        /**
+         * Build the row of a child from its stat.
+         *
+         * @param stat the stat of the child, null if it was removed since it was listed
+         * @return the values of the columns
+         */
+        Object[] loadRow(File file, StructStat stat);
+    }
+
+    private final String[] columns;
+    private final File directory;
+    private final String[] names;
+    // Stats of the children, read when sorting needs them or when their row is built.
+    private final StructStat[] stats;
+    private final RowLoader loader;
+    // Row positions in sort order, as indices into the names.
+    private final Integer[] order;
+    private final Object[][] rows;
+
+    DocumentListCursor(String[] columns, File directory, String[] names, String sortOrder, RowLoader loader) {
+        this.columns = columns;
+        this.directory = directory;
+        this.names = names;
+        this.loader = loader;
+        stats = new StructStat[names.length];
+        rows = new Object[names.length][];
+
+        order = new Integer[names.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        // Only the first sort column is honored, the others would rarely break ties
+        String column = null;
+        boolean descending = false;
+        if (sortOrder != null && !sortOrder.trim().isEmpty()) {
+            String[] terms = sortOrder.split(",")[0].trim().split("\\s+");
+            column = terms[0];
+            descending = terms[terms.length - 1].equalsIgnoreCase("DESC");
+        }
+
+        if (Document.COLUMN_SIZE.equals(column) || Document.COLUMN_LAST_MODIFIED.equals(column)) {
+            boolean size = Document.COLUMN_SIZE.equals(column);
+            long[] keys = new long[names.length];
+
+            // The same values as the columns, the last modified time in milliseconds. Removed
+            // children sort below every other child, like the null values of their rows.
+            for (int i = 0; i < names.length; i++) {
+                StructStat stat = getStat(i);
+                if (stat == null) {
+                    keys[i] = Long.MIN_VALUE;
+                } else {
+                    keys[i] = size ? stat.st_size : LoveDocumentsProvider.getLastModified(stat);
+                }
+            }
+            sort((a, b) -> Long.compare(keys[a], keys[b]), descending);
+        } else if (Document.COLUMN_DISPLAY_NAME.equals(column)) {
+            String[] keys = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                keys[i] = names[i].toLowerCase(Locale.ROOT);
+            }
+            sort((a, b) -> keys[a].compareTo(keys[b]), descending);
+        }
+    }
+
+    /**
+     * @return the stat of a child, null if it was removed since it was listed
+     */
+    private StructStat getStat(int index) {
+        if (stats[index] == null) {
+            try {
+                stats[index] = Os.stat(new File(directory, names[index]).getPath());
+            } catch (ErrnoException e) {
+                return null;
+            }
+        }
+        return stats[index];
+    }
+
+    private void sort(Comparator<Integer> comparator, boolean descending) {
+        Arrays.sort(order, descending ? Collections.reverseOrder(comparator) : comparator);
+    }
+
+    @Override
+    public int getCount() {
+        return names.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columns;
+    }
+
+    @Override
+    public void fillWindow(int position, CursorWindow window) {
+        if (position < 0 || position >= names.length) {
+            return;
+        }
+
+        window.acquireReference();
+        try {
+            window.clear();
+            window.setStartPosition(position);
+            window.setNumColumns(columns.length);
+
+            int end = Math.min(names.length, position + WINDOW_ROWS);
+            for (int row = position; row < end; row++) {
+                if (!window.allocRow()) {
+                    break;
+                }
+                if (!putRow(window, getRow(row), row)) {
+                    window.freeLastRow();
+                    break;
+                }
+            }
+        } finally {
+            window.releaseReference();
+        }
+    }
+
+    private boolean putRow(CursorWindow window, Object[] values, int row) {
+        for (int column = 0; column < columns.length; column++) {
+            Object value = values[column];
+            boolean put;
+
+            if (value == null) {
+                put = window.putNull(row, column);
+            } else if (value instanceof Long || value instanceof Integer) {
+                put = window.putLong(((Number) value).longValue(), row, column);
+            } else {
+                put = window.putString(value.toString(), row, column);
+            }
+
+            if (!put) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object[] getRow(int position) {
+        int index = order[position];
+        if (rows[index] == null) {
+            File file = new File(directory, names[index]);
+            rows[index] = loader.loadRow(file, getStat(index));
+        }
+        return rows[index];
+    }
+
+    private Object getValue(int column) {
+        checkPosition();
+        return getRow(getPosition())[column];
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = getValue(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long || value instanceof Integer) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = getValue(column);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = getValue(column);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value != null ? Long.parseLong(value.toString()) : 0;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getValue(column) == null;
+    }
+}
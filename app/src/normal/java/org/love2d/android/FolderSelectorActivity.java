@@ -21,7 +21,6 @@
 package org.love2d.android;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Environment;
 import android.widget.Button;
@@ -30,16 +29,16 @@ import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.documentfile.provider.DocumentFile;
 
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.util.List;
+
 public class FolderSelectorActivity extends AppCompatActivity {
-    private static final String PREFS_NAME = "GameHubPrefs";
-    private static final String GAMES_FOLDER_URI = "games_folder_uri";
-    
     private TextView selectedFolderText;
     private MaterialCardView folderCard;
     private FloatingActionButton selectFolderFab;
@@ -56,12 +55,11 @@ public class FolderSelectorActivity extends AppCompatActivity {
                     getContentResolver().takePersistableUriPermission(uri, 
                         Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
                     
-                    // Save URI to preferences
-                    SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-                    prefs.edit().putString(GAMES_FOLDER_URI, uri.toString()).apply();
+                    // Add the folder to the library
+                    GameFolders.add(this, uri);
                     
                     // Update UI
-                    updateFolderSelection(uri);
+                    updateFolderSelection(GameFolders.load(this));
                 }
             }
         }
@@ -87,12 +85,13 @@ public class FolderSelectorActivity extends AppCompatActivity {
     private void setupListeners() {
         selectFolderFab.setOnClickListener(v -> openFolderPicker());
         folderCard.setOnClickListener(v -> openFolderPicker());
+        folderCard.setOnLongClickListener(v -> {
+            showRemoveFolderDialog();
+            return true;
+        });
         continueButton.setOnClickListener(v -> {
-            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-            String folderUri = prefs.getString(GAMES_FOLDER_URI, null);
-            if (folderUri != null) {
+            if (!GameFolders.load(this).isEmpty()) {
                 Intent intent = new Intent(this, GameListActivity.class);
-                intent.putExtra("folder_uri", folderUri);
                 startActivity(intent);
             } else {
                 Toast.makeText(this, "Por favor selecione uma pasta primeiro", Toast.LENGTH_SHORT).show();
@@ -101,11 +100,9 @@ public class FolderSelectorActivity extends AppCompatActivity {
     }
 
     private void checkExistingFolder() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String savedUri = prefs.getString(GAMES_FOLDER_URI, null);
-        if (savedUri != null) {
-            android.net.Uri uri = android.net.Uri.parse(savedUri);
-            updateFolderSelection(uri);
+        List<String> savedUris = GameFolders.load(this);
+        if (!savedUris.isEmpty()) {
+            updateFolderSelection(savedUris);
         }
     }
 
@@ -115,14 +112,51 @@ public class FolderSelectorActivity extends AppCompatActivity {
         folderPickerLauncher.launch(intent);
     }
 
-    private void updateFolderSelection(android.net.Uri uri) {
+    private void showRemoveFolderDialog() {
+        List<String> uris = GameFolders.load(this);
+        if (uris.isEmpty()) {
+            return;
+        }
+
+        String[] folderNames = new String[uris.size()];
+        for (int i = 0; i < folderNames.length; i++) {
+            folderNames[i] = getFolderName(uris.get(i));
+        }
+
+        new AlertDialog.Builder(this)
+            .setTitle("Remover pasta")
+            .setItems(folderNames, (dialog, which) -> {
+                GameFolders.remove(this, android.net.Uri.parse(uris.get(which)));
+                updateFolderSelection(GameFolders.load(this));
+                Toast.makeText(this, "Pasta removida: " + folderNames[which], Toast.LENGTH_SHORT).show();
+            })
+            .show();
+    }
+
+    private String getFolderName(String uri) {
+        DocumentFile documentFile = DocumentFile.fromTreeUri(this, android.net.Uri.parse(uri));
+        String folderName = documentFile != null ? documentFile.getName() : null;
+        return folderName != null ? folderName : "Pasta selecionada";
+    }
+
+    private void updateFolderSelection(List<String> uris) {
         try {
-            DocumentFile documentFile = DocumentFile.fromTreeUri(this, uri);
-            if (documentFile != null) {
-                String folderName = documentFile.getName();
-                selectedFolderText.setText(folderName != null ? folderName : "Pasta selecionada");
+            StringBuilder folderNames = new StringBuilder();
+            for (String uri : uris) {
+                if (folderNames.length() > 0) {
+                    folderNames.append(", ");
+                }
+                folderNames.append(getFolderName(uri));
+            }
+
+            if (folderNames.length() > 0) {
+                selectedFolderText.setText(folderNames);
                 continueButton.setEnabled(true);
                 folderCard.setCardBackgroundColor(getResources().getColor(android.R.color.system_accent1_200, null));
+            } else {
+                selectedFolderText.setText("Toque para selecionar pasta");
+                continueButton.setEnabled(false);
+                folderCard.setCardBackgroundColor(getResources().getColor(android.R.color.system_accent2_100, null));
             }
         } catch (Exception e) {
             selectedFolderText.setText("Erro ao acessar pasta");
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+/**
+ * Scores how well a query matches a name, tolerating typos.
+ * <p>
+ * A name containing the query as a subsequence always scores higher than a name which only
+ * matches with typos. Subsequence matches earn bonuses for consecutive characters and word
+ * starts. Otherwise the name may still match if some part of it is within a small edit distance
+ * of the query.
+ * <p>
+ * Both the query and the names are expected to be normalized. Instances reuse their buffers so
+ * scoring doesn't allocate, and they are not thread-safe.
+ */
+class FuzzyMatcher {
+    static final int NO_MATCH = 0;
+
+    private static final int SUBSEQUENCE_BASE = 1000;
+    private static final int TYPO_BASE = 500;
+    private static final int TYPO_PENALTY = 100;
+
+    private char[] query = new char[0];
+    private int maxErrors = 0;
+    private int[] previousRow = new int[1];
+    private int[] currentRow = new int[1];
+
+    public void setQuery(String normalizedQuery) {
+        query = normalizedQuery.toCharArray();
+        maxErrors = getMaxErrors(query.length);
+
+        if (previousRow.length < query.length + 1) {
+            previousRow = new int[query.length + 1];
+            currentRow = new int[query.length + 1];
+        }
+    }
+
+    /**
+     * @return the number of typos allowed for a query of the given length
+     */
+    public static int getMaxErrors(int queryLength) {
+        if (queryLength <= 3) {
+            return 0;
+        } else if (queryLength <= 6) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * Score the name stored in text between start (inclusive) and end (exclusive).
+     *
+     * @return a positive score if the name matches the query, {@link #NO_MATCH} otherwise
+     */
+    public int score(char[] text, int start, int end) {
+        if (query.length == 0) {
+            return SUBSEQUENCE_BASE;
+        }
+
+        int score = scoreSubsequence(text, start, end);
+        if (score != NO_MATCH) {
+            return score;
+        }
+
+        if (maxErrors > 0) {
+            int errors = getSubstringDistance(text, start, end);
+            if (errors <= maxErrors) {
+                return TYPO_BASE - errors * TYPO_PENALTY - Math.min(end - start, TYPO_PENALTY - 1);
+            }
+        }
+
+        return NO_MATCH;
+    }
+
+    private int scoreSubsequence(char[] text, int start, int end) {
+        int matched = 0;
+        int score = 0;
+        int run = 0;
+        int previous = -2;
+
+        for (int i = start; i < end && matched < query.length; i++) {
+            if (text[i] != query[matched]) {
+                continue;
+            }
+
+            int bonus = 1;
+            if (i == previous + 1) {
+                run++;
+                bonus += 2 * run;
+            } else {
+                run = 0;
+            }
+
+            if (i == start || !Character.isLetterOrDigit(text[i - 1])) {
+                bonus += 3;
+            }
+
+            score += bonus;
+            previous = i;
+            matched++;
+        }
+
+        if (matched < query.length) {
+            return NO_MATCH;
+        }
+
+        // Prefer shorter names, the query covers more of them
+        return SUBSEQUENCE_BASE + score * 8 - Math.min(end - start - query.length, 200);
+    }
+
+    /**
+     * Compute the smallest edit distance between the query and any substring of the name
+     * (Sellers' algorithm), stopping early on an exact match.
+     */
+    private int getSubstringDistance(char[] text, int start, int end) {
+        int length = query.length;
+        int[] previous = previousRow;
+        int[] current = currentRow;
+
+        for (int j = 0; j <= length; j++) {
+            previous[j] = j;
+        }
+
+        int best = previous[length];
+
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            current[0] = 0;
+
+            for (int j = 1; j <= length; j++) {
+                int substitution = previous[j - 1] + (query[j - 1] == c ? 0 : 1);
+                int deletion = previous[j] + 1;
+                int insertion = current[j - 1] + 1;
+                current[j] = Math.min(substitution, Math.min(deletion, insertion));
+            }
+
+            best = Math.min(best, current[length]);
+            if (best == 0) {
+                break;
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return best;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the games folder for added, removed or renamed games.
+ * <p>
+ * Folders the app can read directly, like the ones of its own documents provider, are watched
+ * with a {@link FileObserver} per directory as deep as games are searched, as their providers
+ * don't send change notifications. Games are watched too, but not their content. Other folders
+ * are watched through the content observers of their provider. Changes are coalesced: the
+ * listener is called once things are quiet for a moment, or at the latest a few seconds after the
+ * first change, so copying many games at once only causes a few updates.
+ * <p>
+ * Providers built on the file system, like the ones of the shared storage and SD cards, only
+ * notify about the directories they have an open cursor on, so a cursor on the children of the
+ * folder is kept open while watching. Only the folder itself is watched that way: changes in
+ * its subfolders are only seen with providers which notify about descendants.
+ * <p>
+ * Public methods must be called from the main thread. The listener is called on the main
+ * thread.
+ */
+class GameFolderObserver {
+    private static final String TAG = "GameFolderObserver";
+
+    private static final long QUIET_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 5000;
+    // Most directories watched, inotify watches are limited per user.
+    private static final int MAX_WATCHED_DIRECTORIES = 512;
+
+    // Games are only added, removed or renamed once they are completely written.
+    private static final int FILE_EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+        FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE |
+        FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+    // Events which may add or remove directories to watch.
+    private static final int TREE_EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+        FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+
+    interface Listener {
+        void onFolderChanged();
+    }
+
+    private final Context context;
+    private final Uri treeUri;
+    private final int maxDepth;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable notifyRunnable = this::notifyListener;
+    private final Runnable changeRunnable = this::onChange;
+
+    // Set while a change from the file observer thread waits for the main thread.
+    private final AtomicBoolean changePosted = new AtomicBoolean();
+    // Time of the first change not reported yet, 0 if there is none.
+    private long firstChangeTime = 0;
+
+    // Sets up the file observers and the cursor, which touch the disk or the provider.
+    private ExecutorService watcher;
+    // Set while an update of the watched directories waits for the watcher.
+    private final AtomicBoolean updateQueued = new AtomicBoolean();
+    // Watched directories by path. Also guards the state used by the file observer threads,
+    // as stop() may run during an update.
+    private final HashMap<String, FileObserver> fileObservers = new HashMap<>();
+    private boolean watching = false;
+    private File directory;
+    private ContentObserver contentObserver;
+    private Cursor childrenCursor;
+
+    /**
+     * @param maxDepth how deep games are searched, see {@link GameFolders#getScanDepth}
+     */
+    GameFolderObserver(Context context, Uri treeUri, int maxDepth, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.treeUri = treeUri;
+        this.maxDepth = Math.max(1, maxDepth);
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (watcher != null) {
+            return;
+        }
+
+        synchronized (fileObservers) {
+            watching = true;
+            watcher = Executors.newSingleThreadExecutor();
+            directory = LocalDocuments.getDirectory(context, treeUri);
+        }
+
+        if (directory != null) {
+            updateFileObservers();
+            return;
+        }
+
+        contentObserver = new ContentObserver(mainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                GameFolderObserver.this.onChange();
+            }
+        };
+
+        try {
+            Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri,
+                DocumentsContract.getTreeDocumentId(treeUri));
+            context.getContentResolver().registerContentObserver(childrenUri, true, contentObserver);
+            ContentObserver observer = contentObserver;
+            watcher.execute(() -> openChildrenCursor(childrenUri, observer));
+            Log.d(TAG, "Observing " + childrenUri);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Can't observe " + treeUri, e);
+            contentObserver = null;
+        }
+    }
+
+    public void stop() {
+        if (watcher == null) {
+            return;
+        }
+
+        synchronized (fileObservers) {
+            watching = false;
+            for (FileObserver observer : fileObservers.values()) {
+                observer.stopWatching();
+            }
+            fileObservers.clear();
+        }
+        if (contentObserver != null) {
+            context.getContentResolver().unregisterContentObserver(contentObserver);
+            contentObserver = null;
+        }
+
+        // The cursor is opened on the watcher, closing it there too can't miss it
+        watcher.execute(this::closeChildrenCursor);
+        watcher.shutdown();
+        watcher = null;
+
+        mainHandler.removeCallbacks(changeRunnable);
+        mainHandler.removeCallbacks(notifyRunnable);
+        firstChangeTime = 0;
+    }
+
+    /**
+     * Keep a cursor on the children of the folder open, the provider may only watch the folder
+     * while there is one. Runs on the watcher.
+     */
+    private void openChildrenCursor(Uri childrenUri, ContentObserver observer) {
+        try {
+            Cursor cursor = context.getContentResolver().query(childrenUri,
+                new String[]{Document.COLUMN_DOCUMENT_ID}, null, null, null);
+            if (cursor == null) {
+                return;
+            }
+
+            // Also gets the notifications sent to the URI the provider set on the cursor,
+            // which may not be the tree URI
+            cursor.registerContentObserver(observer);
+            childrenCursor = cursor;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Can't open the children of " + treeUri, e);
+        }
+    }
+
+    private void closeChildrenCursor() {
+        if (childrenCursor != null) {
+            childrenCursor.close();
+            childrenCursor = null;
+        }
+    }
+
+    /**
+     * Watch the directories of the folder which may contain games, and stop watching the ones
+     * which are gone, on the watcher.
+     */
+    private void updateFileObservers() {
+        synchronized (fileObservers) {
+            // Once stopped, the watcher doesn't take any more work
+            if (watching && updateQueued.compareAndSet(false, true)) {
+                File root = directory;
+                watcher.execute(() -> {
+                    updateQueued.set(false);
+                    syncFileObservers(root);
+                });
+            }
+        }
+    }
+
+    private void syncFileObservers(File root) {
+        // Directories as deep as the scanner lists them, without the content of games
+        HashSet<String> found = new HashSet<>();
+        ArrayDeque<File> pending = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        pending.add(root);
+        depths.add(0);
+
+        while (!pending.isEmpty() && found.size() < MAX_WATCHED_DIRECTORIES) {
+            File current = pending.removeFirst();
+            int depth = depths.removeFirst();
+            found.add(current.getPath());
+
+            File[] children = current.listFiles();
+            if (children == null || depth >= maxDepth || new File(current, "main.lua").exists()) {
+                continue;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    pending.add(child);
+                    depths.add(depth + 1);
+                }
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            Log.w(TAG, "Only watching " + found.size() + " directories of " + root);
+        }
+
+        synchronized (fileObservers) {
+            if (!watching) {
+                return;
+            }
+
+            Iterator<Map.Entry<String, FileObserver>> iterator = fileObservers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, FileObserver> watched = iterator.next();
+                if (!found.remove(watched.getKey())) {
+                    watched.getValue().stopWatching();
+                    iterator.remove();
+                }
+            }
+
+            for (String path : found) {
+                FileObserver observer = createFileObserver(new File(path));
+                observer.startWatching();
+                fileObservers.put(path, observer);
+            }
+        }
+    }
+
+    private FileObserver createFileObserver(File directory) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new FileObserver(directory, FILE_EVENTS) {
+                @Override
+                public void onEvent(int event, String path) {
+                    onFileEvent(event);
+                }
+            };
+        }
+
+        return new FileObserver(directory.getPath(), FILE_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                onFileEvent(event);
+            }
+        };
+    }
+
+    /**
+     * Called on the file observer thread. A copy generates many events, only hand one at a time
+     * over to the main thread.
+     */
+    private void onFileEvent(int event) {
+        if ((event & TREE_EVENTS) != 0) {
+            updateFileObservers();
+        }
+        if (changePosted.compareAndSet(false, true)) {
+            mainHandler.post(changeRunnable);
+        }
+    }
+
+    private void onChange() {
+        changePosted.set(false);
+
+        long now = SystemClock.uptimeMillis();
+        if (firstChangeTime == 0) {
+            firstChangeTime = now;
+        }
+
+        // Wait until changes stop, but don't let a long stream of changes postpone the update
+        long delay = Math.min(QUIET_DELAY_MS, firstChangeTime + MAX_DELAY_MS - now);
+        mainHandler.removeCallbacks(notifyRunnable);
+        mainHandler.postDelayed(notifyRunnable, Math.max(0, delay));
+    }
+
+    private void notifyListener() {
+        firstChangeTime = 0;
+        listener.onFolderChanged();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.UriPermission;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The games folders selected by the user, stored as persisted tree URIs in the preferences,
+ * how deep games are searched in them, and how the library is sorted.
+ * <p>
+ * Older versions stored a single folder under {@link #GAMES_FOLDER_URI}. That folder is still
+ * part of the library until it's removed.
+ */
+class GameFolders {
+    private static final String TAG = "GameFolders";
+
+    static final String PREFS_NAME = "GameHubPrefs";
+    static final String GAMES_FOLDER_URI = "games_folder_uri";
+    static final String GAMES_FOLDER_URIS = "games_folder_uris";
+    static final String SCAN_DEPTH = "scan_depth";
+    static final String SORT_ORDER = "sort_order";
+
+    // Finds games sorted into a category folder, like Games/Platformers/mygame.
+    static final int DEFAULT_SCAN_DEPTH = 2;
+    static final int MAX_SCAN_DEPTH = 5;
+
+    /**
+     * @return the tree URIs of the games folders, in a stable order
+     */
+    static List<String> load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        HashSet<String> uris = new HashSet<>(prefs.getStringSet(GAMES_FOLDER_URIS, Collections.<String>emptySet()));
+
+        String legacyUri = prefs.getString(GAMES_FOLDER_URI, null);
+        if (legacyUri != null) {
+            uris.add(legacyUri);
+        }
+
+        ArrayList<String> sorted = new ArrayList<>(uris);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    static void add(Context context, Uri treeUri) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        // The returned set must not be modified
+        Set<String> uris = new HashSet<>(prefs.getStringSet(GAMES_FOLDER_URIS, Collections.<String>emptySet()));
+        uris.add(treeUri.toString());
+        prefs.edit().putStringSet(GAMES_FOLDER_URIS, uris).apply();
+    }
+
+    /**
+     * Remove a folder from the library, including the folder stored by older versions, and give
+     * up the access to it.
+     */
+    static void remove(Context context, Uri treeUri) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> uris = new HashSet<>(prefs.getStringSet(GAMES_FOLDER_URIS, Collections.<String>emptySet()));
+        uris.remove(treeUri.toString());
+
+        SharedPreferences.Editor editor = prefs.edit().putStringSet(GAMES_FOLDER_URIS, uris);
+        if (treeUri.toString().equals(prefs.getString(GAMES_FOLDER_URI, null))) {
+            editor.remove(GAMES_FOLDER_URI);
+        }
+        editor.apply();
+
+        // Only the flags which were granted can be released
+        ContentResolver resolver = context.getContentResolver();
+        for (UriPermission permission : resolver.getPersistedUriPermissions()) {
+            if (permission.getUri().equals(treeUri)) {
+                int flags = (permission.isReadPermission() ? Intent.FLAG_GRANT_READ_URI_PERMISSION : 0) |
+                    (permission.isWritePermission() ? Intent.FLAG_GRANT_WRITE_URI_PERMISSION : 0);
+                try {
+                    resolver.releasePersistableUriPermission(treeUri, flags);
+                } catch (SecurityException e) {
+                    Log.w(TAG, "Failed to release " + treeUri, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how many levels of subfolders are searched for games, 1 only searches the
+     * games folders themselves
+     */
+    static int getScanDepth(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int depth = prefs.getInt(SCAN_DEPTH, DEFAULT_SCAN_DEPTH);
+        return Math.max(1, Math.min(MAX_SCAN_DEPTH, depth));
+    }
+
+    static void setScanDepth(Context context, int depth) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(SCAN_DEPTH, depth).apply();
+    }
+
+    /**
+     * @return one of the GameSearchIndex sort orders, recently played games first by default
+     */
+    static int getSortOrder(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(SORT_ORDER, GameSearchIndex.SORT_RECENT);
+    }
+
+    static void setSortOrder(Context context, int sortOrder) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(SORT_ORDER, sortOrder).apply();
+    }
+}
@@ -23,29 +23,49 @@ package org.love2d.android;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.documentfile.provider.DocumentFile;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.card.MaterialCardView;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class GameGridAdapter extends RecyclerView.Adapter<GameGridAdapter.ViewHolder> {
+    private static final String TAG = "GameGridAdapter";
 
-    private GameData[] allData = null;
-    private List<GameData> filteredData = new ArrayList<>();
+    interface OnGameLaunchListener {
+        void onGameLaunched(long stableId);
+    }
+
+    // Differences between the shown games and new ones are computed off the main thread.
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final GameIconLoader iconLoader;
+    private final GamePrefetcher prefetcher;
+    private final OnGameLaunchListener launchListener;
+    // Shown games, as indices into the library.
+    private GameLibrary library = GameLibrary.EMPTY;
+    private int[] indices = new int[0];
+    // Incremented by every submitted list, so only the diff of the latest one is applied.
+    private int generation = 0;
     private final int[] gradientColors = {
         Color.parseColor("#667eea"),
         Color.parseColor("#764ba2"),
@@ -63,6 +83,42 @@ public class GameGridAdapter extends RecyclerView.Adapter<GameGridAdapter.ViewHo
         Color.parseColor("#19547b"),
         Color.parseColor("#667db6"),
     };
+    // One gradient per pair of consecutive colors, built once and shared by all cards.
+    private final Drawable.ConstantState[] gradients = createGradients(gradientColors);
+    // A press often ends in a launch, get the game ready meanwhile. Presses are seen by the grid
+    // rather than by each card, so cards keep their own touch handling.
+    private final RecyclerView.OnItemTouchListener pressListener = new RecyclerView.SimpleOnItemTouchListener() {
+        @Override
+        public boolean onInterceptTouchEvent(@NonNull RecyclerView recyclerView, @NonNull MotionEvent event) {
+            int action = event.getActionMasked();
+            if (action == MotionEvent.ACTION_DOWN) {
+                View child = recyclerView.findChildViewUnder(event.getX(), event.getY());
+                if (child != null) {
+                    RuntimeWarmup.start("touch");
+                    ((ViewHolder) recyclerView.getChildViewHolder(child)).prefetch();
+                }
+            } else if (action == MotionEvent.ACTION_CANCEL) {
+                prefetcher.cancel();
+            }
+            return false;
+        }
+    };
+    // The press is canceled when the grid starts scrolling instead.
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_DRAGGING) {
+                prefetcher.cancel();
+            }
+        }
+    };
+
+    public GameGridAdapter(GameIconLoader iconLoader, GamePrefetcher prefetcher, OnGameLaunchListener launchListener) {
+        this.iconLoader = iconLoader;
+        this.prefetcher = prefetcher;
+        this.launchListener = launchListener;
+        setHasStableIds(true);
+    }
 
     @NonNull
     @Override
@@ -70,52 +126,126 @@ public class GameGridAdapter extends RecyclerView.Adapter<GameGridAdapter.ViewHo
         View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_game_grid, parent, false);
         ViewHolder holder = new ViewHolder(view);
         view.setOnClickListener(holder);
+        view.setOnFocusChangeListener(holder);
         return holder;
     }
 
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.addOnItemTouchListener(pressListener);
+        recyclerView.addOnScrollListener(scrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeOnItemTouchListener(pressListener);
+        recyclerView.removeOnScrollListener(scrollListener);
+    }
+
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        holder.setData(filteredData.get(position), position);
+        holder.setData(library, indices[position]);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        iconLoader.unbind(holder.gameIcon);
     }
 
     @Override
     public int getItemCount() {
-        return filteredData.size();
+        return indices.length;
     }
 
-    public void setData(GameData[] data) {
-        this.allData = data;
-        if (data == null) {
-            filteredData.clear();
-        } else {
-            filteredData = new ArrayList<>(Arrays.asList(data));
+    @Override
+    public long getItemId(int position) {
+        return library.getStableId(indices[position]);
+    }
+
+    /**
+     * Build the card backgrounds. Colors are made more muted for better readability.
+     */
+    private static Drawable.ConstantState[] createGradients(int[] colors) {
+        Drawable.ConstantState[] gradients = new Drawable.ConstantState[colors.length];
+
+        for (int i = 0; i < colors.length; i++) {
+            int color1 = adjustColorAlpha(colors[i], 0.8f);
+            int color2 = adjustColorAlpha(colors[(i + 1) % colors.length], 0.8f);
+
+            GradientDrawable gradient = new GradientDrawable(GradientDrawable.Orientation.TL_BR, new int[]{color1, color2});
+            gradient.setShape(GradientDrawable.RECTANGLE);
+            gradient.setCornerRadius(24f);
+            gradient.setGradientType(GradientDrawable.LINEAR_GRADIENT);
+            gradients[i] = gradient.getConstantState();
         }
+
+        return gradients;
     }
 
-    public void filter(String query) {
-        if (allData == null) return;
-
-        filteredData.clear();
-        if (query.isEmpty()) {
-            filteredData.addAll(Arrays.asList(allData));
-        } else {
-            String lowerCaseQuery = query.toLowerCase();
-            for (GameData game : allData) {
-                if (game.name != null && game.name.toLowerCase().contains(lowerCaseQuery)) {
-                    filteredData.add(game);
-                }
+    private static int adjustColorAlpha(int color, float alpha) {
+        int red = Color.red(color);
+        int green = Color.green(color);
+        int blue = Color.blue(color);
+        return Color.argb((int) (255 * alpha), red, green, blue);
+    }
+
+    /**
+     * Pick the gradient of a game from its identity, so a game keeps its colors wherever it
+     * shows up in the grid.
+     */
+    private int getGradientIndex(long stableId) {
+        int hash = (int) (stableId ^ (stableId >>> 32));
+        return (hash & Integer.MAX_VALUE) % gradients.length;
+    }
+
+    /**
+     * Show a new list of games. The differences with the shown list are computed in the
+     * background and only the changed cards are updated.
+     *
+     * @param indices the indices of the games to show in the library, in display order
+     */
+    public void submitList(GameLibrary newLibrary, int[] newIndices) {
+        int submitted = ++generation;
+        GameLibrary oldLibrary = library;
+        int[] oldIndices = indices;
+
+        // Nothing to compare, like AsyncListDiffer
+        if (oldIndices.length == 0 || newIndices.length == 0) {
+            library = newLibrary;
+            indices = newIndices;
+            if (oldIndices.length > 0) {
+                notifyItemRangeRemoved(0, oldIndices.length);
+            } else if (newIndices.length > 0) {
+                notifyItemRangeInserted(0, newIndices.length);
             }
+            return;
         }
-        notifyDataSetChanged();
+
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                new GameDiffCallback(oldLibrary, oldIndices, newLibrary, newIndices));
+
+            mainHandler.post(() -> {
+                if (submitted == generation) {
+                    library = newLibrary;
+                    indices = newIndices;
+                    result.dispatchUpdatesTo(this);
+                }
+            });
+        });
     }
 
-    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+    class ViewHolder extends RecyclerView.ViewHolder
+        implements View.OnClickListener, View.OnFocusChangeListener {
 
         private final MaterialCardView cardView;
         private final ImageView gameIcon;
         private final TextView gameName;
         private final View gradientBackground;
-        private DocumentFile documentFile;
+        private final Drawable[] backgrounds = new Drawable[gradients.length];
+        private int gradientIndex = -1;
+        private GameLibrary library;
+        private int index;
 
         public ViewHolder(View itemView) {
             super(itemView);
@@ -126,67 +256,118 @@ public class GameGridAdapter extends RecyclerView.Adapter<GameGridAdapter.ViewHo
             gradientBackground = itemView.findViewById(R.id.gradientBackground);
         }
 
-        public void setData(GameData data, int position) {
-            gameName.setText(data.name);
-            documentFile = data.documentFile;
+        public void setData(GameLibrary library, int index) {
+            this.library = library;
+            this.index = index;
+            gameName.setText(library.getChars(), library.getNameStart(index), library.getNameLength(index));
 
-            // Set icon based on type
-            if (data.isDirectory) {
-                gameIcon.setImageResource(R.drawable.ic_baseline_folder_32);
+            // Set the game icon, or an icon based on type until it's loaded
+            if (library.isDirectory(index)) {
+                iconLoader.bind(gameIcon, library, index, R.drawable.ic_baseline_folder_32);
             } else {
-                gameIcon.setImageResource(R.drawable.ic_baseline_insert_drive_file_32);
+                iconLoader.bind(gameIcon, library, index, R.drawable.ic_baseline_insert_drive_file_32);
             }
 
-            // Create gradient background
-            createGradientBackground(position);
+            setGradientBackground(getGradientIndex(library.getStableId(index)));
         }
 
-        private void createGradientBackground(int position) {
-            // Use position to ensure consistent colors for the same game
-            int colorIndex1 = position % gradientColors.length;
-            int colorIndex2 = (position + 1) % gradientColors.length;
-            
-            int color1 = gradientColors[colorIndex1];
-            int color2 = gradientColors[colorIndex2];
-            
-            // Make colors more muted for better readability
-            color1 = adjustColorAlpha(color1, 0.8f);
-            color2 = adjustColorAlpha(color2, 0.8f);
-
-            GradientDrawable gradient = new GradientDrawable();
-            gradient.setShape(GradientDrawable.RECTANGLE);
-            gradient.setCornerRadius(24f);
-            gradient.setColors(new int[]{color1, color2});
-            gradient.setGradientType(GradientDrawable.LINEAR_GRADIENT);
-            gradient.setOrientation(GradientDrawable.Orientation.TL_BR);
+        private void setGradientBackground(int index) {
+            if (index == gradientIndex) {
+                return;
+            }
 
-            gradientBackground.setBackground(gradient);
-        }
+            // Drawables can't be attached to several views, but their state can be shared.
+            // Each card creates a gradient at most once and reuses it on later binds.
+            if (backgrounds[index] == null) {
+                backgrounds[index] = gradients[index].newDrawable();
+            }
 
-        private int adjustColorAlpha(int color, float alpha) {
-            int red = Color.red(color);
-            int green = Color.green(color);
-            int blue = Color.blue(color);
-            return Color.argb((int) (255 * alpha), red, green, blue);
+            gradientBackground.setBackground(backgrounds[index]);
+            gradientIndex = index;
         }
 
         @Override
         public void onClick(View v) {
-            if (documentFile == null) {
+            if (library == null) {
                 return;
             }
 
             Context context = v.getContext();
             Intent intent = new Intent(context, GameActivity.class);
-            intent.setData(documentFile.getUri());
+            intent.setData(getGameUri(context));
             intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            intent.putExtra(GameActivity.EXTRA_LAUNCH_TIME, SystemClock.uptimeMillis());
+            Log.d(TAG, "Launching game, runtime " + (RuntimeWarmup.isDone() ? "loaded" : "not loaded yet"));
             context.startActivity(intent);
+            launchListener.onGameLaunched(library.getStableId(index));
+        }
+
+        @Override
+        public void onFocusChange(View v, boolean hasFocus) {
+            if (hasFocus) {
+                prefetch();
+            } else {
+                prefetcher.cancel();
+            }
+        }
+
+        void prefetch() {
+            // Game folders are read file by file, only archives are worth reading ahead
+            if (library != null && !library.isDirectory(index)) {
+                prefetcher.prefetch(library.getTreeUri(index), library.getDocumentId(index));
+            }
+        }
+
+        private Uri getGameUri(Context context) {
+            // Let LÖVE open games the app can read directly by path, like GameListAdapter does
+            File file = LocalDocuments.getFile(context, library.getTreeUri(index), library.getDocumentId(index));
+            return file != null ? Uri.fromFile(file) : library.getUri(index);
         }
     }
 
-    static class GameData {
-        public DocumentFile documentFile;
-        public String name;
-        public boolean isDirectory;
+    /**
+     * Compares the shown games with new ones. Games are the same if they have the same document
+     * ID, and their card changes if anything shown on it changed.
+     */
+    private static class GameDiffCallback extends DiffUtil.Callback {
+        private final GameLibrary oldLibrary;
+        private final int[] oldIndices;
+        private final GameLibrary newLibrary;
+        private final int[] newIndices;
+
+        GameDiffCallback(GameLibrary oldLibrary, int[] oldIndices, GameLibrary newLibrary, int[] newIndices) {
+            this.oldLibrary = oldLibrary;
+            this.oldIndices = oldIndices;
+            this.newLibrary = newLibrary;
+            this.newIndices = newIndices;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldIndices.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newIndices.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            int oldIndex = oldIndices[oldPosition];
+            int newIndex = newIndices[newPosition];
+            return oldLibrary.getStableId(oldIndex) == newLibrary.getStableId(newIndex) &&
+                oldLibrary.hasSameDocumentId(oldIndex, newLibrary, newIndex);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            int oldIndex = oldIndices[oldPosition];
+            int newIndex = newIndices[newPosition];
+            return oldLibrary.isDirectory(oldIndex) == newLibrary.isDirectory(newIndex) &&
+                oldLibrary.hasIcon(oldIndex) == newLibrary.hasIcon(newIndex) &&
+                oldLibrary.getLastModified(oldIndex) == newLibrary.getLastModified(newIndex) &&
+                oldLibrary.hasSameName(oldIndex, newLibrary, newIndex);
+        }
     }
 }
\ No newline at end of file
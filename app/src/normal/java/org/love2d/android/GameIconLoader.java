@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the game icons shown in the game grid.
+ * <p>
+ * Icons are decoded off the main thread and downscaled to the size of the icon view. Decoded
+ * bitmaps are kept in an in-memory LRU bounded by bytes, and the downscaled thumbnails are
+ * written to a disk cache keyed by provider, document ID and last modified time, so an icon is
+ * only ever extracted from its game once. Bitmaps evicted from memory and no longer shown are
+ * reused to decode the next thumbnails.
+ * <p>
+ * All methods except the decoding itself must be called from the main thread.
+ */
+class GameIconLoader {
+    private static final String TAG = "GameIconLoader";
+    private static final String CACHE_DIR = "icons";
+
+    private static final long MAX_DISK_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    // Placeholder icons are white vectors, real icons must not be tinted.
+    private static final ColorStateList PLACEHOLDER_TINT = ColorStateList.valueOf(Color.WHITE);
+
+    private final Context context;
+    private final ContentResolver resolver;
+    private final File cacheDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService decoder = Executors.newFixedThreadPool(2);
+
+    private final LruCache<String, Bitmap> memoryCache;
+    private final HashSet<Bitmap> inMemoryCache = new HashSet<>();
+    // Number of views showing each bitmap. Bitmaps are only reused once nobody shows them.
+    private final HashMap<Bitmap, Integer> shown = new HashMap<>();
+    private final ArrayList<Bitmap> reusable = new ArrayList<>();
+    private final HashMap<ImageView, Request> requests = new HashMap<>();
+
+    private static class Request {
+        ImageView view;
+        String key;
+        Future<?> future;
+    }
+
+    GameIconLoader(Context context) {
+        this.context = context.getApplicationContext();
+        resolver = context.getContentResolver();
+        cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / 16;
+
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                inMemoryCache.remove(oldValue);
+                if (!shown.containsKey(oldValue)) {
+                    recycleLater(oldValue);
+                }
+            }
+        };
+
+        decoder.execute(this::trimDiskCache);
+    }
+
+    /**
+     * Show the icon of a game in a view, or the placeholder until it's loaded.
+     *
+     * @return true if the icon was available right away
+     */
+    public boolean bind(ImageView view, GameLibrary library, int index, int placeholder) {
+        unbind(view);
+
+        if (!library.hasIcon(index)) {
+            showPlaceholder(view, placeholder);
+            return false;
+        }
+
+        int size = getTargetSize(view);
+        // Document IDs are only unique within their provider
+        String key = library.getTreeUri(index).getAuthority() + "/" + library.getDocumentId(index) + "@" +
+            library.getLastModified(index) + "x" + size;
+        Bitmap bitmap = memoryCache.get(key);
+
+        if (bitmap != null) {
+            show(view, bitmap);
+            return true;
+        }
+
+        showPlaceholder(view, placeholder);
+
+        Request request = new Request();
+        request.view = view;
+        request.key = key;
+        request.future = decoder.submit(() -> {
+            Bitmap decoded = load(library, index, key, size);
+            if (decoded != null) {
+                mainHandler.post(() -> onLoaded(request, decoded));
+            }
+        });
+        requests.put(view, request);
+        return false;
+    }
+
+    /**
+     * Stop showing an icon in a view, for example because the view is recycled.
+     */
+    public void unbind(ImageView view) {
+        Request request = requests.remove(view);
+        if (request != null) {
+            request.future.cancel(false);
+        }
+
+        Object tag = view.getTag(R.id.gameIcon);
+        if (tag instanceof Bitmap) {
+            view.setTag(R.id.gameIcon, null);
+            release((Bitmap) tag);
+        }
+    }
+
+    public void shutdown() {
+        decoder.shutdownNow();
+        requests.clear();
+    }
+
+    private void onLoaded(Request request, Bitmap bitmap) {
+        inMemoryCache.add(bitmap);
+        memoryCache.put(request.key, bitmap);
+
+        // The view may have been bound to another game in the meantime
+        if (requests.get(request.view) == request) {
+            requests.remove(request.view);
+            show(request.view, bitmap);
+        }
+    }
+
+    private void show(ImageView view, Bitmap bitmap) {
+        Integer count = shown.get(bitmap);
+        shown.put(bitmap, count == null ? 1 : count + 1);
+        view.setTag(R.id.gameIcon, bitmap);
+        view.setImageTintList(null);
+        view.setImageBitmap(bitmap);
+    }
+
+    private static void showPlaceholder(ImageView view, int placeholder) {
+        view.setImageTintList(PLACEHOLDER_TINT);
+        view.setImageResource(placeholder);
+    }
+
+    private void release(Bitmap bitmap) {
+        Integer count = shown.get(bitmap);
+        if (count == null || count <= 1) {
+            shown.remove(bitmap);
+
+            // Evicted while it was shown
+            if (!inMemoryCache.contains(bitmap)) {
+                recycleLater(bitmap);
+            }
+        } else {
+            shown.put(bitmap, count - 1);
+        }
+    }
+
+    private void recycleLater(Bitmap bitmap) {
+        synchronized (reusable) {
+            if (reusable.size() < MAX_REUSABLE_BITMAPS && bitmap.isMutable()) {
+                reusable.add(bitmap);
+            }
+        }
+    }
+
+    private Bitmap takeReusable(int size) {
+        synchronized (reusable) {
+            for (int i = 0; i < reusable.size(); i++) {
+                Bitmap bitmap = reusable.get(i);
+                if (bitmap.getAllocationByteCount() >= size * size * 4) {
+                    return reusable.remove(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int getTargetSize(ImageView view) {
+        int width = view.getLayoutParams().width;
+        int height = view.getLayoutParams().height;
+        if (width > 0 && height > 0) {
+            return Math.max(width, height);
+        }
+        return Math.round(48 * view.getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Load a thumbnail from the disk cache, or extract it from the game and store it there.
+     * Runs on the decoder threads.
+     */
+    private Bitmap load(GameLibrary library, int index, String key, int size) {
+        File thumbnail = new File(cacheDir, hash(key) + ".png");
+
+        if (thumbnail.isFile()) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            Bitmap reused = takeReusable(size);
+            options.inMutable = true;
+            options.inBitmap = reused;
+
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), options);
+            } catch (IllegalArgumentException e) {
+                // The reused bitmap didn't fit, decode without it
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), options);
+            }
+
+            // Still free for the next thumbnails if the decode failed or didn't use it
+            if (reused != null && bitmap != reused) {
+                recycleLater(reused);
+            }
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+
+        byte[] source = readSource(library, index);
+        if (source == null) {
+            return null;
+        }
+
+        Bitmap bitmap = decodeScaled(source, size);
+        if (bitmap != null) {
+            writeThumbnail(thumbnail, bitmap);
+        }
+        return bitmap;
+    }
+
+    private byte[] readSource(GameLibrary library, int index) {
+        // Read games the app can access directly without going through their provider
+        File file = LocalDocuments.getFile(context, library.getTreeUri(index), library.getDocumentId(index));
+        Uri uri = file != null ? Uri.fromFile(file) : library.getUri(index);
+
+        if (!library.isDirectory(index)) {
+            return LoveArchiveReader.readFile(resolver, uri, LoveArchiveReader.ICON_NAME, LoveArchiveReader.MAX_ICON_SIZE);
+        } else if (file != null) {
+            return readIcon(Uri.fromFile(new File(file, LoveArchiveReader.ICON_NAME)));
+        }
+
+        // uri is a tree document URI, so its children can be listed with the same grant
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(uri, library.getDocumentId(index));
+        String iconId = null;
+
+        try (Cursor cursor = resolver.query(childrenUri, new String[]{Document.COLUMN_DOCUMENT_ID, Document.COLUMN_DISPLAY_NAME}, null, null, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                if (LoveArchiveReader.ICON_NAME.equals(cursor.getString(1))) {
+                    iconId = cursor.getString(0);
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to list " + uri, e);
+        }
+
+        if (iconId == null) {
+            return null;
+        }
+
+        return readIcon(DocumentsContract.buildDocumentUriUsingTree(uri, iconId));
+    }
+
+    private byte[] readIcon(Uri iconUri) {
+        try (InputStream in = resolver.openInputStream(iconUri)) {
+            if (in == null) {
+                return null;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16384];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+                if (out.size() > LoveArchiveReader.MAX_ICON_SIZE) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read " + iconUri, e);
+            return null;
+        }
+    }
+
+    private Bitmap decodeScaled(byte[] source, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(source, 0, source.length, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Decode at the smallest power of two scale that's still larger than the target
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        if (decoded == null) {
+            return null;
+        }
+
+        float scale = Math.min(1f, (float) size / Math.max(decoded.getWidth(), decoded.getHeight()));
+        int width = Math.max(1, Math.round(decoded.getWidth() * scale));
+        int height = Math.max(1, Math.round(decoded.getHeight() * scale));
+
+        if (width == decoded.getWidth() && height == decoded.getHeight() && decoded.isMutable()) {
+            return decoded;
+        }
+
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled.isMutable() ? scaled : scaled.copy(Bitmap.Config.ARGB_8888, true);
+    }
+
+    private void writeThumbnail(File thumbnail, Bitmap bitmap) {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            return;
+        }
+
+        File temp = new File(cacheDir, thumbnail.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail", e);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(thumbnail)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete the least recently written thumbnails once the disk cache is over its budget.
+     */
+    private void trimDiskCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long[] modified = new long[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            total += files[i].length();
+        }
+
+        if (total <= MAX_DISK_CACHE_SIZE) {
+            return;
+        }
+
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+
+        for (int i = 0; i < order.length && total > MAX_DISK_CACHE_SIZE; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
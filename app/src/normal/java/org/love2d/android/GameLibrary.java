@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compact, immutable snapshot of the games shown in the grid.
+ * <p>
+ * Games are stored as parallel primitive arrays instead of one object per game. Their strings
+ * are concatenated into a single character buffer and addressed by offsets, games refer to the
+ * tree URI of their folder by index, and document URIs are only built when a game is opened.
+ * Filtered or sorted views of the library are plain arrays of game indices.
+ * <p>
+ * Libraries are created by a {@link Builder}. A library never changes once built, so it can be
+ * read from any thread.
+ */
+class GameLibrary {
+    static final GameLibrary EMPTY = new Builder().build();
+
+    // Strings stored for every game, in this order, in the character buffer.
+    private static final int FIELD_DOCUMENT_ID = 0;
+    private static final int FIELD_NAME = 1;
+    private static final int FIELD_FILE_NAME = 2;
+    private static final int FIELD_TITLE = 3;
+    private static final int FIELD_VERSION = 4;
+    private static final int FIELD_COUNT = 5;
+
+    private static final byte FLAG_DIRECTORY = 1;
+    private static final byte FLAG_ICON = 2;
+
+    private final Uri[] treeUris;
+    private final int count;
+    private final char[] chars;
+    private final int[] offsets;
+    private final long[] stableIds;
+    private final long[] lastModified;
+    private final long[] sizes;
+    private final byte[] flags;
+    private final short[] folders;
+
+    private GameLibrary(Builder builder) {
+        treeUris = builder.treeUris.toArray(new Uri[0]);
+        count = builder.count;
+        chars = builder.chars;
+        offsets = builder.offsets;
+        stableIds = builder.stableIds;
+        lastModified = builder.lastModified;
+        sizes = builder.sizes;
+        flags = builder.flags;
+        folders = builder.folders;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the tree URI of the games folder of a game
+     */
+    public Uri getTreeUri(int index) {
+        return treeUris[folders[index]];
+    }
+
+    public Uri getUri(int index) {
+        return DocumentsContract.buildDocumentUriUsingTree(getTreeUri(index), getDocumentId(index));
+    }
+
+    public String getDocumentId(int index) {
+        return getString(index, FIELD_DOCUMENT_ID);
+    }
+
+    /**
+     * @return the conf.lua title of the game, or its folder or file name
+     */
+    public String getName(int index) {
+        return getString(index, FIELD_NAME);
+    }
+
+    public String getFileName(int index) {
+        return getString(index, FIELD_FILE_NAME);
+    }
+
+    /**
+     * @return the title from conf.lua, null if unknown
+     */
+    public String getTitle(int index) {
+        return getOptionalString(index, FIELD_TITLE);
+    }
+
+    /**
+     * @return the LÖVE version from conf.lua, null if unknown
+     */
+    public String getVersion(int index) {
+        return getOptionalString(index, FIELD_VERSION);
+    }
+
+    public long getStableId(int index) {
+        return stableIds[index];
+    }
+
+    public long getLastModified(int index) {
+        return lastModified[index];
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    public boolean isDirectory(int index) {
+        return (flags[index] & FLAG_DIRECTORY) != 0;
+    }
+
+    public boolean hasIcon(int index) {
+        return (flags[index] & FLAG_ICON) != 0;
+    }
+
+    // The character buffer is exposed so names can be shown and compared without copying them.
+
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int getNameStart(int index) {
+        return offsets[index * FIELD_COUNT + FIELD_NAME];
+    }
+
+    public int getNameLength(int index) {
+        return offsets[index * FIELD_COUNT + FIELD_NAME + 1] - getNameStart(index);
+    }
+
+    public boolean hasSameName(int index, GameLibrary other, int otherIndex) {
+        return regionEquals(index, FIELD_NAME, other, otherIndex);
+    }
+
+    public boolean hasSameDocumentId(int index, GameLibrary other, int otherIndex) {
+        return regionEquals(index, FIELD_DOCUMENT_ID, other, otherIndex);
+    }
+
+    /**
+     * @return the approximate number of bytes used by the arrays of this library
+     */
+    public long getByteCount() {
+        return chars.length * 2L + offsets.length * 4L +
+            (stableIds.length + lastModified.length + sizes.length) * 8L + flags.length + folders.length * 2L;
+    }
+
+    private String getString(int index, int field) {
+        int start = offsets[index * FIELD_COUNT + field];
+        int end = offsets[index * FIELD_COUNT + field + 1];
+        return new String(chars, start, end - start);
+    }
+
+    private String getOptionalString(int index, int field) {
+        String value = getString(index, field);
+        return value.isEmpty() ? null : value;
+    }
+
+    private boolean regionEquals(int index, int field, GameLibrary other, int otherIndex) {
+        int start = offsets[index * FIELD_COUNT + field];
+        int length = offsets[index * FIELD_COUNT + field + 1] - start;
+        int otherStart = other.offsets[otherIndex * FIELD_COUNT + field];
+        int otherLength = other.offsets[otherIndex * FIELD_COUNT + field + 1] - otherStart;
+
+        if (length != otherLength) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != other.chars[otherStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects games and builds libraries from them.
+     * <p>
+     * Games can still be added after a library was built. The arrays only ever grow, and slots
+     * used by a built library are never written again, so built libraries share the arrays of
+     * the builder instead of copying them.
+     * <p>
+     * This class is not thread-safe.
+     */
+    static class Builder {
+        private final ArrayList<String> treeUriStrings = new ArrayList<>();
+        private final ArrayList<Uri> treeUris = new ArrayList<>();
+        // Hash of the provider authority of every folder, the seed of the stable IDs.
+        private final ArrayList<Long> authorityHashes = new ArrayList<>();
+        private int count = 0;
+        private char[] chars = new char[256];
+        private int charCount = 0;
+        private int[] offsets = new int[FIELD_COUNT + 1];
+        private long[] stableIds = new long[0];
+        private long[] lastModified = new long[0];
+        private long[] sizes = new long[0];
+        private byte[] flags = new byte[0];
+        private short[] folders = new short[0];
+        // Open addressing map from the stable IDs of the added games to their index, to find
+        // duplicates and games by ID.
+        private long[] idTable = new long[16];
+        private int[] idIndices = new int[16];
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * @return the index of the game with the given stable ID, or -1 if it wasn't added
+         */
+        public int indexOf(long stableId) {
+            if (stableId == 0) {
+                return -1;
+            }
+
+            int mask = idTable.length - 1;
+            int slot = (int) (stableId ^ (stableId >>> 32)) & mask;
+
+            while (idTable[slot] != 0) {
+                if (idTable[slot] == stableId) {
+                    return idIndices[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Add a game of the index, unless the same document was already added, possibly from
+         * another folder of the same provider.
+         * <p>
+         * A game whose ID collides with the one of another document gets the next free ID
+         * instead. Its ID then depends on the order games are added in, so it may not match the
+         * one of its launch history, but the game is still shown.
+         *
+         * @return true if the game was added
+         */
+        public boolean add(GameLibraryIndex.Entry entry) {
+            int folder = getFolder(entry.treeUri);
+            long stableId = hash(authorityHashes.get(folder), entry.documentId);
+            // Zero marks an empty slot of the ID table
+            if (stableId == 0) {
+                stableId = 1;
+            }
+
+            for (int index = indexOf(stableId); index >= 0; index = indexOf(stableId)) {
+                if (isSameDocument(index, folder, entry.documentId)) {
+                    return false;
+                }
+                stableId = stableId == -1 ? 1 : stableId + 1;
+            }
+            addId(stableId);
+
+            if (count == stableIds.length) {
+                int capacity = Math.max(16, count * 2);
+                stableIds = Arrays.copyOf(stableIds, capacity);
+                lastModified = Arrays.copyOf(lastModified, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                folders = Arrays.copyOf(folders, capacity);
+                offsets = Arrays.copyOf(offsets, capacity * FIELD_COUNT + 1);
+            }
+
+            boolean directory = entry.type == GameLibraryIndex.TYPE_DIRECTORY;
+            String name;
+            if (entry.title != null && !entry.title.isEmpty()) {
+                name = entry.title;
+            } else {
+                name = directory ? entry.name : entry.name.replace(".love", "");
+            }
+
+            int field = count * FIELD_COUNT;
+            appendString(field + FIELD_DOCUMENT_ID, entry.documentId);
+            appendString(field + FIELD_NAME, name);
+            appendString(field + FIELD_FILE_NAME, entry.name);
+            appendString(field + FIELD_TITLE, entry.title);
+            appendString(field + FIELD_VERSION, entry.version);
+
+            stableIds[count] = stableId;
+            lastModified[count] = entry.lastModified;
+            sizes[count] = entry.size;
+            flags[count] = (byte) ((directory ? FLAG_DIRECTORY : 0) | (entry.hasIcon ? FLAG_ICON : 0));
+            folders[count] = (short) folder;
+            count++;
+            return true;
+        }
+
+        public GameLibrary build() {
+            return new GameLibrary(this);
+        }
+
+        private int getFolder(String treeUri) {
+            // There are only a few folders, and all entries of a folder share the same string
+            for (int i = 0; i < treeUriStrings.size(); i++) {
+                String folder = treeUriStrings.get(i);
+                if (folder == treeUri || folder.equals(treeUri)) {
+                    return i;
+                }
+            }
+
+            Uri uri = Uri.parse(treeUri);
+            String authority = uri.getAuthority();
+            treeUriStrings.add(treeUri);
+            treeUris.add(uri);
+            authorityHashes.add(hash(0xcbf29ce484222325L, authority != null ? authority : ""));
+            return treeUriStrings.size() - 1;
+        }
+
+        private void appendString(int field, String value) {
+            int length = value != null ? value.length() : 0;
+
+            if (charCount + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+            }
+            if (length > 0) {
+                value.getChars(0, length, chars, charCount);
+                charCount += length;
+            }
+
+            // The end of a string is the start of the next one
+            offsets[field + 1] = charCount;
+        }
+
+        private boolean isSameDocument(int index, int folder, String documentId) {
+            int other = folders[index];
+            if (other != folder && !TextUtils.equals(treeUris.get(other).getAuthority(),
+                    treeUris.get(folder).getAuthority())) {
+                return false;
+            }
+
+            int start = offsets[index * FIELD_COUNT + FIELD_DOCUMENT_ID];
+            int length = offsets[index * FIELD_COUNT + FIELD_DOCUMENT_ID + 1] - start;
+            if (length != documentId.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[start + i] != documentId.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addId(long id) {
+            if ((count + 1) * 2 > idTable.length) {
+                long[] oldIds = idTable;
+                int[] oldIndices = idIndices;
+                idTable = new long[oldIds.length * 2];
+                idIndices = new int[oldIds.length * 2];
+                for (int i = 0; i < oldIds.length; i++) {
+                    if (oldIds[i] != 0) {
+                        insertId(oldIds[i], oldIndices[i]);
+                    }
+                }
+            }
+
+            insertId(id, count);
+        }
+
+        private void insertId(long id, int index) {
+            int mask = idTable.length - 1;
+            int slot = (int) (id ^ (id >>> 32)) & mask;
+
+            while (idTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            idTable[slot] = id;
+            idIndices[slot] = index;
+        }
+    }
+
+    /**
+     * Continue a 64-bit FNV-1a hash with the characters of a string.
+     */
+    private static long hash(long hash, String string) {
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.net.Uri;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent index of the entries found in the games folders, keyed by folder tree URI and
+ * document ID.
+ * <p>
+ * The index remembers the last modified time of every game directory together with whether it
+ * contained a main.lua, and the metadata of every .love archive, so a rescan only has to examine
+ * the entries that changed since the previous scan. It is stored as a small binary file in the
+ * app private storage.
+ * <p>
+ * Folders are scanned concurrently, so all methods are synchronized.
+ */
+class GameLibraryIndex {
+    private static final String TAG = "GameLibraryIndex";
+    private static final String FILE_NAME = "game_library.idx";
+
+    private static final int MAGIC = 0x4C4F5649; // "LOVI"
+    private static final int VERSION = 4;
+
+    static final int TYPE_DIRECTORY = 0;
+    static final int TYPE_ARCHIVE = 1;
+
+    static class Entry {
+        // Tree URI of the games folder this entry is in. Not stored per entry.
+        public String treeUri;
+        public String documentId;
+        public String name;
+        public long lastModified;
+        public long size;
+        public int type;
+        // Denote if this entry is a playable game.
+        public boolean valid;
+        // Metadata from conf.lua, only known for archives, and icon.png presence.
+        public String title;
+        public String version;
+        public boolean hasIcon;
+
+        /**
+         * Take over what was learned by examining the content of an unchanged entry.
+         */
+        public void copyDetails(Entry other) {
+            valid = other.valid;
+            title = other.title;
+            version = other.version;
+            hasIcon = other.hasIcon;
+        }
+    }
+
+    private final AtomicFile file;
+    // Entries of every games folder, by tree URI, then by document ID in scan order.
+    private final LinkedHashMap<String, LinkedHashMap<String, Entry>> folders = new LinkedHashMap<>();
+
+    GameLibraryIndex(File dir) {
+        file = new AtomicFile(new File(dir, FILE_NAME));
+    }
+
+    /**
+     * Load the index from disk, keeping only the given games folders. If the index can't be
+     * read, the index is left empty.
+     *
+     * @param treeUris the tree URIs of the games folders
+     */
+    public synchronized void load(Collection<String> treeUris) {
+        folders.clear();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+
+            int folderCount = in.readInt();
+            for (int i = 0; i < folderCount; i++) {
+                String treeUri = in.readUTF();
+                LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+                folders.put(treeUri, entries);
+
+                int count = in.readInt();
+                for (int j = 0; j < count; j++) {
+                    Entry entry = new Entry();
+                    entry.treeUri = treeUri;
+                    entry.documentId = in.readUTF();
+                    entry.name = in.readUTF();
+                    entry.lastModified = in.readLong();
+                    entry.size = in.readLong();
+                    entry.type = in.readByte();
+                    entry.valid = in.readBoolean();
+                    entry.title = readOptionalString(in);
+                    entry.version = readOptionalString(in);
+                    entry.hasIcon = in.readBoolean();
+                    entries.put(entry.documentId, entry);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // No index yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable library index", e);
+            folders.clear();
+        }
+
+        folders.keySet().retainAll(treeUris);
+    }
+
+    /**
+     * Write the index to disk. Failures are logged, the index is only a cache.
+     */
+    public synchronized void save() {
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(folders.size());
+
+            for (Map.Entry<String, LinkedHashMap<String, Entry>> folder : folders.entrySet()) {
+                out.writeUTF(folder.getKey());
+                out.writeInt(folder.getValue().size());
+
+                for (Entry entry : folder.getValue().values()) {
+                    out.writeUTF(entry.documentId);
+                    out.writeUTF(entry.name);
+                    out.writeLong(entry.lastModified);
+                    out.writeLong(entry.size);
+                    out.writeByte(entry.type);
+                    out.writeBoolean(entry.valid);
+                    writeOptionalString(out, entry.title);
+                    writeOptionalString(out, entry.version);
+                    out.writeBoolean(entry.hasIcon);
+                }
+            }
+
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write library index", e);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    public synchronized Entry get(String treeUri, String documentId) {
+        LinkedHashMap<String, Entry> entries = folders.get(treeUri);
+        return entries != null ? entries.get(documentId) : null;
+    }
+
+    /**
+     * Replace the entries of a games folder with the result of its scan, keeping the scan order.
+     */
+    public synchronized void replaceFolder(String treeUri, Collection<Entry> scanned) {
+        LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        for (Entry entry : scanned) {
+            entries.put(entry.documentId, entry);
+        }
+        folders.put(treeUri, entries);
+    }
+
+    /**
+     * Get the playable games of all folders, in folder then scan order. A game reachable from
+     * several folders, for example through nested folders of the same provider, is only listed
+     * once.
+     */
+    public synchronized List<Entry> getGames() {
+        ArrayList<Entry> games = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+
+        for (Map.Entry<String, LinkedHashMap<String, Entry>> folder : folders.entrySet()) {
+            String authority = Uri.parse(folder.getKey()).getAuthority();
+
+            for (Entry entry : folder.getValue().values()) {
+                if (entry.valid && seen.add(authority + '/' + entry.documentId)) {
+                    games.add(entry);
+                }
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Check if the content of a cached entry can be reused without examining it again.
+     * Providers that don't report a last modified time always need a rescan.
+     */
+    public static boolean isUpToDate(Entry cached, Entry scanned) {
+        return cached != null && scanned.lastModified != 0 && cached.type == scanned.type &&
+            cached.lastModified == scanned.lastModified && cached.size == scanned.size;
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -20,42 +20,89 @@
 
 package org.love2d.android;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.os.SystemClock;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.constraintlayout.widget.ConstraintLayout;
-import androidx.documentfile.provider.DocumentFile;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.concurrent.Executor;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameListActivity extends AppCompatActivity {
-    private static final String PREFS_NAME = "GameHubPrefs";
-    private static final String GAMES_FOLDER_URI = "games_folder_uri";
-
-    private final Executor executor = Executors.newSingleThreadExecutor();
+    private static final String TAG = "GameListActivity";
+    // Longest time the first frame waits for the cached games, so a slow disk never looks like
+    // a hung launch.
+    private static final long FIRST_FRAME_TIMEOUT_MS = 500;
+    // Threads walking the directories and checking the games of each folder. Scanning is bound
+    // by provider round trips, so use more than one even on small devices but keep it bounded.
+    private static final int FOLDER_SCAN_THREADS = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    // Longest time a folder scan may go without listing a directory or reading an archive
+    // before it's given up, like when the provider of an unmounted volume doesn't answer.
+    private static final long FOLDER_STALL_TIMEOUT_MS = 15000;
+    private static final long FOLDER_POLL_MS = 1000;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Scans every games folder on its own thread and pool, so a slow or unmounted volume doesn't
+    // hold up the others.
+    private final ExecutorService folderScanners = Executors.newCachedThreadPool();
+
+    // Games found by the running scan which are not in the grid yet. They are added once per
+    // frame so a scan finding many games at once doesn't flood the UI thread.
+    private final ArrayList<GameLibraryIndex.Entry> pendingGames = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private final Runnable flushPendingGames = this::flushPendingGames;
+
+    // Incremented by every scan request. A scan whose generation is no longer the current one
+    // stops at the next directory boundary and its results are dropped.
+    private final AtomicInteger scanGeneration = new AtomicInteger();
+    // Set while a scan is queued but not started yet, so a burst of requests runs a single scan.
+    private final AtomicBoolean scanQueued = new AtomicBoolean();
+    private volatile CancellationSignal scanSignal;
+
+    // The first frame is held back until the cached games are in the grid, so the launch shows
+    // the library right away instead of an empty grid.
+    private long createTime;
+    private boolean firstFrameReady = false;
+    private final Runnable releaseFirstFrame = this::releaseFirstFrame;
+    private final ViewTreeObserver.OnPreDrawListener firstFrameListener = () -> firstFrameReady;
 
     private RecyclerView recyclerView;
     private SwipeRefreshLayout swipeLayout;
@@ -63,7 +110,16 @@ public class GameListActivity extends AppCompatActivity {
     private EditText searchEditText;
     private FloatingActionButton changeFolderFab;
     private GameGridAdapter adapter;
-    private String folderUri;
+    private GameIconLoader iconLoader;
+    private GamePrefetcher prefetcher;
+    private GameSearchIndex searchIndex;
+    private GameLibraryIndex index;
+    private LaunchHistory history;
+    private final ArrayList<GameFolderObserver> folderObservers = new ArrayList<>();
+    // Set when a folder changed while the activity was stopped, to rescan once it's back.
+    private boolean folderChanged = false;
+    // Tree URIs of the games folders, null until they are read.
+    private volatile List<String> folderUris;
 
     private final ActivityResultLauncher<String[]> openFileLauncher = registerForActivityResult(
         new ActivityResultContracts.OpenDocument(),
@@ -87,22 +143,78 @@ public class GameListActivity extends AppCompatActivity {
         setupListeners();
         setupSearch();
 
-        // Get folder URI from intent or preferences
-        folderUri = getIntent().getStringExtra("folder_uri");
-        if (folderUri == null) {
-            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-            folderUri = prefs.getString(GAMES_FOLDER_URI, null);
-        }
+        holdFirstFrame();
 
-        if (folderUri != null) {
-            scanGames();
-        } else {
-            // No folder selected, redirect to folder selector
-            startActivity(new Intent(this, FolderSelectorActivity.class));
-            finish();
+        // Read the folders and the games of the previous scan off the main thread, then show
+        // them while the folders are scanned again
+        index = new GameLibraryIndex(getFilesDir());
+
+        executor.execute(() -> {
+            List<String> uris = GameFolders.load(this);
+
+            if (uris.isEmpty()) {
+                // No folder selected, redirect to folder selector
+                runOnUiThread(() -> {
+                    startActivity(new Intent(this, FolderSelectorActivity.class));
+                    finish();
+                });
+                return;
+            }
+
+            // The history orders the games, so it's read before they are shown
+            history.load();
+            searchIndex.setSortOrder(GameFolders.getSortOrder(this));
+            index.load(uris);
+            List<GameLibraryIndex.Entry> cached = index.getGames();
+            int depth = GameFolders.getScanDepth(this);
+
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+
+                folderUris = uris;
+                if (cached.isEmpty()) {
+                    releaseFirstFrame();
+                } else {
+                    showGames(cached);
+                }
+                scanGames();
+
+                startFolderObservers(depth);
+            });
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        if (folderChanged) {
+            folderChanged = false;
+            rescanGames();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        // Nobody will see the results anymore
+        scanGeneration.incrementAndGet();
+        cancelScan();
+        stopFolderObservers();
+        recyclerView.removeCallbacks(flushPendingGames);
+        recyclerView.removeCallbacks(releaseFirstFrame);
+        recyclerView.getViewTreeObserver().removeOnPreDrawListener(firstFrameListener);
+        executor.shutdownNow();
+        folderScanners.shutdownNow();
+        iconLoader.shutdown();
+        prefetcher.shutdown();
+        searchIndex.shutdown();
+        history.shutdown();
+
+        super.onDestroy();
+    }
+
     private void initializeViews() {
         recyclerView = findViewById(R.id.gamesRecyclerView);
         swipeLayout = findViewById(R.id.swipeRefreshLayout);
@@ -120,7 +232,16 @@ public class GameListActivity extends AppCompatActivity {
     }
 
     private void setupRecyclerView() {
-        adapter = new GameGridAdapter();
+        iconLoader = new GameIconLoader(this);
+        history = new LaunchHistory(getFilesDir());
+        prefetcher = new GamePrefetcher(this);
+        adapter = new GameGridAdapter(iconLoader, prefetcher, this::onGameLaunched);
+        searchIndex = new GameSearchIndex(history, (library, indices) -> {
+            adapter.submitList(library, indices);
+            if (indices.length > 0) {
+                releaseFirstFrame();
+            }
+        });
         GridLayoutManager layoutManager = new GridLayoutManager(this, 2);
         recyclerView.setLayoutManager(layoutManager);
         recyclerView.setAdapter(adapter);
@@ -141,8 +262,8 @@ public class GameListActivity extends AppCompatActivity {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                if (adapter != null) {
-                    adapter.filter(s.toString());
+                if (searchIndex != null) {
+                    searchIndex.setQuery(s.toString());
                 }
             }
 
@@ -169,6 +290,15 @@ public class GameListActivity extends AppCompatActivity {
             Intent intent = new Intent(this, GameActivity.class);
             startActivity(intent);
             return true;
+        } else if (itemId == R.id.action_sort_order) {
+            showSortOrderDialog();
+            return true;
+        } else if (itemId == R.id.action_game_cache) {
+            showGameCacheDialog();
+            return true;
+        } else if (itemId == R.id.action_scan_depth) {
+            showScanDepthDialog();
+            return true;
         } else if (itemId == R.id.action_about) {
             Intent intent = new Intent(this, AboutActivity.class);
             startActivity(intent);
@@ -178,80 +308,339 @@ public class GameListActivity extends AppCompatActivity {
         }
     }
 
-    @SuppressLint("NotifyDataSetChanged")
+    private void showScanDepthDialog() {
+        String[] depths = new String[GameFolders.MAX_SCAN_DEPTH];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = Integer.toString(i + 1);
+        }
+
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.scan_depth)
+            .setSingleChoiceItems(depths, GameFolders.getScanDepth(this) - 1, (dialog, which) -> {
+                GameFolders.setScanDepth(this, which + 1);
+                dialog.dismiss();
+                scanGames();
+
+                // Watch as deep as the new depth
+                if (folderUris != null) {
+                    stopFolderObservers();
+                    startFolderObservers(which + 1);
+                }
+            })
+            .show();
+    }
+
+    private void showSortOrderDialog() {
+        // In the order of the GameSearchIndex sort orders
+        String[] orders = {
+            getString(R.string.sort_recent),
+            getString(R.string.sort_most_played),
+            getString(R.string.sort_name),
+        };
+
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.sort_order)
+            .setSingleChoiceItems(orders, GameFolders.getSortOrder(this), (dialog, which) -> {
+                GameFolders.setSortOrder(this, which);
+                searchIndex.setSortOrder(which);
+                dialog.dismiss();
+            })
+            .show();
+    }
+
+    private void showGameCacheDialog() {
+        // Budgets in MiB, 0 disables the cache
+        int[] budgets = {0, 256, 512, 1024, 2048};
+        String[] labels = new String[budgets.length];
+        long budget = GameCache.getBudget(this);
+        int checked = 0;
+
+        for (int i = 0; i < budgets.length; i++) {
+            labels[i] = budgets[i] == 0 ? getString(R.string.game_cache_off) : getString(R.string.game_cache_budget, budgets[i]);
+            if (budgets[i] * 1024L * 1024L == budget) {
+                checked = i;
+            }
+        }
+
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.game_cache)
+            .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                GameCache.setBudget(this, budgets[which] * 1024L * 1024L);
+                dialog.dismiss();
+            })
+            .show();
+    }
+
+    private void onGameLaunched(long stableId) {
+        long now = System.currentTimeMillis();
+        history.record(stableId, now);
+        searchIndex.onGameLaunched(stableId, now);
+    }
+
+    private void holdFirstFrame() {
+        createTime = SystemClock.uptimeMillis();
+        recyclerView.getViewTreeObserver().addOnPreDrawListener(firstFrameListener);
+        recyclerView.postDelayed(releaseFirstFrame, FIRST_FRAME_TIMEOUT_MS);
+    }
+
+    /**
+     * Let the first frame be drawn, and report how long it took to show the library.
+     */
+    private void releaseFirstFrame() {
+        if (firstFrameReady) {
+            return;
+        }
+
+        firstFrameReady = true;
+        recyclerView.removeCallbacks(releaseFirstFrame);
+        recyclerView.getViewTreeObserver().removeOnPreDrawListener(firstFrameListener);
+        recyclerView.invalidate();
+
+        // The frame is drawn in the traversal following this one
+        recyclerView.postOnAnimation(() -> {
+            reportFullyDrawn();
+
+            // Get the game runtime ready once the library has settled, so the first launch
+            // doesn't load it
+            Looper.myQueue().addIdleHandler(() -> {
+                RuntimeWarmup.start("idle");
+                return false;
+            });
+
+            long now = SystemClock.uptimeMillis();
+            StringBuilder message = new StringBuilder("First frame with ")
+                .append(adapter.getItemCount()).append(" games after ")
+                .append(now - createTime).append("ms since onCreate");
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                message.append(", ").append(now - Process.getStartUptimeMillis()).append("ms since process start");
+            }
+            Log.d(TAG, message.toString());
+        });
+    }
+
     private void scanGames() {
-        if (folderUri == null) return;
+        if (folderUris == null) return;
 
-        executor.execute(() -> {
-            try {
-                Uri uri = Uri.parse(folderUri);
-                DocumentFile folder = DocumentFile.fromTreeUri(this, uri);
-                
-                if (folder != null && folder.exists()) {
-                    ArrayList<GameGridAdapter.GameData> validGames = new ArrayList<>();
-                    DocumentFile[] files = folder.listFiles();
-
-                    for (DocumentFile file : files) {
-                        GameGridAdapter.GameData gameData = null;
-
-                        if (file.isDirectory()) {
-                            if (isValidGameDirectory(file)) {
-                                gameData = new GameGridAdapter.GameData();
-                                gameData.documentFile = file;
-                                gameData.name = file.getName();
-                                gameData.isDirectory = true;
-                            }
-                        } else if (file.getName() != null && file.getName().endsWith(".love")) {
-                            gameData = new GameGridAdapter.GameData();
-                            gameData.documentFile = file;
-                            gameData.name = file.getName().replace(".love", "");
-                            gameData.isDirectory = false;
-                        }
-
-                        if (gameData != null) {
-                            validGames.add(gameData);
-                        }
-                    }
-
-                    boolean empty = validGames.isEmpty();
-
-                    runOnUiThread(() -> {
-                        if (empty) {
-                            adapter.setData(null);
-                        } else {
-                            GameGridAdapter.GameData[] gameDatas = new GameGridAdapter.GameData[validGames.size()];
-                            validGames.toArray(gameDatas);
-                            adapter.setData(gameDatas);
-                        }
-
-                        adapter.notifyDataSetChanged();
-                        swipeLayout.setRefreshing(false);
-                        noGameLayout.setVisibility(empty ? View.VISIBLE : View.GONE);
-                    });
-                } else {
-                    runOnUiThread(() -> {
-                        swipeLayout.setRefreshing(false);
-                        noGameLayout.setVisibility(View.VISIBLE);
-                        Toast.makeText(this, "Não foi possível acessar a pasta selecionada", Toast.LENGTH_SHORT).show();
+        scanGeneration.incrementAndGet();
+        cancelScan();
+
+        if (scanQueued.compareAndSet(false, true)) {
+            executor.execute(this::runScan);
+        }
+    }
+
+    /**
+     * Pick up games added or removed while the activity is open.
+     */
+    private void startFolderObservers(int depth) {
+        for (String uri : folderUris) {
+            GameFolderObserver observer = new GameFolderObserver(this, Uri.parse(uri), depth, this::onFolderChanged);
+            observer.start();
+            folderObservers.add(observer);
+        }
+    }
+
+    private void stopFolderObservers() {
+        for (GameFolderObserver observer : folderObservers) {
+            observer.stop();
+        }
+        folderObservers.clear();
+    }
+
+    private void onFolderChanged() {
+        // Nobody sees the grid while stopped, rescan once the activity is visible again
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+            rescanGames();
+        } else {
+            folderChanged = true;
+        }
+    }
+
+    /**
+     * Rescan after the folder changed. Unlike a refresh this doesn't cancel a running scan, so a
+     * long burst of changes can't keep restarting it. The scan is queued behind the running one
+     * instead, and both only examine the games which changed.
+     */
+    private void rescanGames() {
+        if (scanQueued.compareAndSet(false, true)) {
+            executor.execute(this::runScan);
+        }
+    }
+
+    private void cancelScan() {
+        CancellationSignal signal = scanSignal;
+        if (signal != null) {
+            signal.cancel();
+        }
+    }
+
+    private void runScan() {
+        scanQueued.set(false);
+        int generation = scanGeneration.get();
+        CancellationSignal signal = new CancellationSignal();
+        scanSignal = signal;
+
+        // A request which came in before the signal was published must still cancel this scan
+        if (generation != scanGeneration.get()) {
+            return;
+        }
+
+        synchronized (pendingGames) {
+            pendingGames.clear();
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        List<String> uris = folderUris;
+        int depth = GameFolders.getScanDepth(this);
+        ArrayList<GameScanner> scanners = new ArrayList<>();
+        ArrayList<CancellationSignal> folderSignals = new ArrayList<>();
+        ArrayList<Future<?>> scans = new ArrayList<>();
+
+        for (String uri : uris) {
+            Uri treeUri = Uri.parse(uri);
+            // Folders the app can read directly are listed without going through their provider
+            File directory = LocalDocuments.getDirectory(this, treeUri);
+            scanners.add(new GameScanner(getContentResolver(), treeUri, directory, index, FOLDER_SCAN_THREADS, depth));
+            folderSignals.add(new CancellationSignal());
+        }
+
+        // Each folder has its own signal so a stuck one can be given up alone
+        signal.setOnCancelListener(() -> {
+            for (CancellationSignal folderSignal : folderSignals) {
+                folderSignal.cancel();
+            }
+        });
+
+        for (int i = 0; i < uris.size(); i++) {
+            String uri = uris.get(i);
+            GameScanner scanner = scanners.get(i);
+            CancellationSignal folderSignal = folderSignals.get(i);
+            scans.add(folderScanners.submit(() -> scanFolder(generation, uri, scanner, folderSignal)));
+        }
+
+        try {
+            for (int i = 0; i < scans.size(); i++) {
+                if (!awaitFolder(scans.get(i), scanners.get(i))) {
+                    // Cancels the running provider queries and interrupts the folder's thread
+                    folderSignals.get(i).cancel();
+                    scans.get(i).cancel(true);
+
+                    Log.w(TAG, "Gave up scanning " + uris.get(i) + " after " +
+                        (SystemClock.elapsedRealtime() - start) + "ms");
+                    postScanResult(generation, () -> {
+                        Toast.makeText(this, "Uma pasta de jogos não respondeu a tempo", Toast.LENGTH_SHORT).show();
                     });
                 }
-            } catch (Exception e) {
-                runOnUiThread(() -> {
-                    swipeLayout.setRefreshing(false);
-                    noGameLayout.setVisibility(View.VISIBLE);
-                    Toast.makeText(this, "Erro ao escanear jogos: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // The activity is gone, or the failure was already reported
+            return;
+        }
+
+        Log.d(TAG, "Scanned " + uris.size() + " folders in " + (SystemClock.elapsedRealtime() - start) + "ms");
+
+        boolean empty = index.getGames().isEmpty();
+        postScanResult(generation, () -> {
+            swipeLayout.setRefreshing(false);
+            if (empty) {
+                noGameLayout.setVisibility(View.VISIBLE);
             }
         });
     }
 
-    private boolean isValidGameDirectory(DocumentFile directory) {
-        DocumentFile[] files = directory.listFiles();
-        for (DocumentFile file : files) {
-            if ("main.lua".equals(file.getName())) {
+    /**
+     * Wait for the scan of a folder as long as it makes progress.
+     *
+     * @return false if the scan got stuck
+     */
+    private static boolean awaitFolder(Future<?> scan, GameScanner scanner)
+        throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                scan.get(FOLDER_POLL_MS, TimeUnit.MILLISECONDS);
                 return true;
+            } catch (TimeoutException e) {
+                if (SystemClock.elapsedRealtime() - scanner.getLastProgress() > FOLDER_STALL_TIMEOUT_MS) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan one games folder and show the merged library as soon as it's done, whatever the
+     * state of the other folders. Runs on its own thread.
+     */
+    private void scanFolder(int generation, String folderUri, GameScanner scanner, CancellationSignal signal) {
+        try {
+            List<GameLibraryIndex.Entry> scanned = scanner.scan(entry -> onGameFound(generation, entry), signal);
+
+            if (scanned != null) {
+                index.replaceFolder(folderUri, scanned);
+                index.save();
+
+                List<GameLibraryIndex.Entry> games = index.getGames();
+                postScanResult(generation, () -> showGames(games));
+            } else {
+                postScanResult(generation, () -> {
+                    Toast.makeText(this, "Não foi possível acessar a pasta selecionada", Toast.LENGTH_SHORT).show();
+                });
+            }
+        } catch (OperationCanceledException e) {
+            // Superseded by a newer scan, or the activity is gone
+        } catch (Exception e) {
+            postScanResult(generation, () -> {
+                Toast.makeText(this, "Erro ao escanear jogos: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            });
+        }
+    }
+
+    /**
+     * Run a scan result on the UI thread, unless a newer scan was requested in the meantime.
+     */
+    private void postScanResult(int generation, Runnable action) {
+        runOnUiThread(() -> {
+            if (generation == scanGeneration.get() && !isDestroyed()) {
+                action.run();
             }
+        });
+    }
+
+    private void onGameFound(int generation, GameLibraryIndex.Entry entry) {
+        synchronized (pendingGames) {
+            if (generation != scanGeneration.get()) {
+                return;
+            }
+
+            pendingGames.add(entry);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
         }
-        return false;
+
+        // Runs on the UI thread at the next animation frame
+        recyclerView.postOnAnimation(flushPendingGames);
+    }
+
+    private void flushPendingGames() {
+        ArrayList<GameLibraryIndex.Entry> games;
+
+        synchronized (pendingGames) {
+            games = new ArrayList<>(pendingGames);
+            pendingGames.clear();
+            flushScheduled = false;
+        }
+
+        if (!games.isEmpty()) {
+            searchIndex.addGames(games);
+            noGameLayout.setVisibility(View.GONE);
+        }
+    }
+
+    private void showGames(List<GameLibraryIndex.Entry> games) {
+        boolean empty = games.isEmpty();
+        searchIndex.setGames(games);
+        noGameLayout.setVisibility(empty ? View.VISIBLE : View.GONE);
     }
 }
\ No newline at end of file
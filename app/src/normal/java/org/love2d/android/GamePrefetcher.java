@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms up the page cache with a .love archive which is likely to be launched, so LÖVE doesn't
+ * read it cold while the game starts.
+ * <p>
+ * The archive is opened as soon as its card is pressed or focused, and the kernel is asked to
+ * read ahead the end of the archive, where the zip central directory is, and its beginning, where
+ * zip tools put main.lua and conf.lua. Read-ahead can't be taken back once asked for, so it's
+ * bounded to these ends: a press which starts a fling doesn't load a whole archive. Providers
+ * whose descriptors don't support read-ahead get the same ends read instead, which stops once
+ * canceled.
+ * <p>
+ * Only the latest archive is prefetched. Public methods must be called from the main thread, and
+ * the files of games are found on the prefetch thread, as that may touch the disk.
+ */
+class GamePrefetcher {
+    private static final String TAG = "GamePrefetcher";
+
+    // Bytes prefetched from each end of an archive.
+    private static final int END_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Context context;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private Uri current;
+    private CancellationSignal signal;
+
+    GamePrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Start prefetching an archive, and stop prefetching any other one.
+     *
+     * @param treeUri    the tree URI of the games folder of the archive
+     * @param documentId the document ID of the archive
+     */
+    public void prefetch(Uri treeUri, String documentId) {
+        Uri uri = DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId);
+        if (uri.equals(current)) {
+            return;
+        }
+
+        cancel();
+        CancellationSignal taskSignal = new CancellationSignal();
+        current = uri;
+        signal = taskSignal;
+        executor.execute(() -> {
+            // Read files directly when possible, like the game will
+            File file = LocalDocuments.getFile(context, treeUri, documentId);
+            run(file != null ? Uri.fromFile(file) : uri, taskSignal);
+        });
+    }
+
+    /**
+     * Stop the running prefetch, the user moved on to something else.
+     */
+    public void cancel() {
+        if (signal != null) {
+            signal.cancel();
+        }
+        current = null;
+        signal = null;
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void run(Uri uri, CancellationSignal signal) {
+        if (signal.isCanceled()) {
+            return;
+        }
+
+        long start = SystemClock.uptimeMillis();
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r", signal)) {
+            if (pfd == null) {
+                return;
+            }
+
+            long size = pfd.getStatSize();
+            if (size <= 0) {
+                // Pipes and sockets can't be read ahead, the game would get what was read here
+                return;
+            }
+
+            long tailStart = Math.max(0, size - END_SIZE);
+            long headEnd = Math.min(END_SIZE, tailStart);
+            String method;
+            long bytes;
+            try {
+                // Read-ahead is asynchronous, the pages are loaded while the game starts
+                Os.posix_fadvise(pfd.getFileDescriptor(), tailStart, size - tailStart, OsConstants.POSIX_FADV_WILLNEED);
+                if (headEnd > 0) {
+                    Os.posix_fadvise(pfd.getFileDescriptor(), 0, headEnd, OsConstants.POSIX_FADV_WILLNEED);
+                }
+                method = "read-ahead";
+                bytes = size - tailStart + headEnd;
+            } catch (ErrnoException e) {
+                method = "read";
+                bytes = readEnds(pfd, tailStart, size, headEnd, signal);
+            }
+
+            Log.d(TAG, "Prefetched " + bytes + " bytes of " + uri + " by " + method + " in " +
+                (SystemClock.uptimeMillis() - start) + "ms");
+        } catch (OperationCanceledException e) {
+            Log.d(TAG, "Canceled prefetch of " + uri + " after " + (SystemClock.uptimeMillis() - start) + "ms");
+        } catch (IOException | RuntimeException e) {
+            // Only a hint, the game opens the archive itself anyway
+            Log.w(TAG, "Failed to prefetch " + uri, e);
+        }
+    }
+
+    /**
+     * Read the end then the beginning of a seekable archive.
+     *
+     * @return how many bytes were read
+     */
+    private static long readEnds(ParcelFileDescriptor pfd, long tailStart, long size, long headEnd,
+                                 CancellationSignal signal) throws IOException {
+        // The descriptor stays owned by pfd, so the channel isn't closed
+        FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        long bytes = read(channel, buffer, tailStart, size, signal);
+        bytes += read(channel, buffer, 0, headEnd, signal);
+        return bytes;
+    }
+
+    private static long read(FileChannel channel, ByteBuffer buffer, long from, long to, CancellationSignal signal)
+        throws IOException {
+        long position = from;
+
+        while (position < to) {
+            signal.throwIfCanceled();
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+
+            int length = channel.read(buffer, position);
+            if (length <= 0) {
+                break;
+            }
+            position += length;
+        }
+
+        return position - from;
+    }
+}
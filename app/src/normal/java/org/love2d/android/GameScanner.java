@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a games folder with one DocumentsContract child query per directory.
+ * <p>
+ * DocumentFile issues a separate query for every getName(), isDirectory() or lastModified()
+ * call, so listing a folder of N games costs O(N) round trips to the documents provider. This
+ * scanner reads everything it needs from a single cursor per directory instead.
+ * <p>
+ * When the app can read the games folder directly, see {@link LocalDocuments}, directories are
+ * listed from the file system instead, without any round trip to the provider. Document IDs are
+ * still the ones the provider would give, so both ways share the library index.
+ * <p>
+ * Games can be nested in subfolders up to a maximum depth. The directory tree is walked with
+ * fork/join tasks so idle threads steal the listing of other branches, and a directory which
+ * contains a main.lua is a game whose content is never walked. Directories which aren't games
+ * are listed on every scan, as changes below them don't show in their last modified time.
+ * <p>
+ * Every scan walks its folder on a pool of its own, so a provider whose queries hang, like one
+ * of an unmounted volume, only holds up the scan of its own folder.
+ */
+class GameScanner {
+    private static final String TAG = "GameScanner";
+
+    private static final String[] CHILD_PROJECTION = new String[]{
+        Document.COLUMN_DOCUMENT_ID,
+        Document.COLUMN_DISPLAY_NAME,
+        Document.COLUMN_MIME_TYPE,
+        Document.COLUMN_SIZE,
+        Document.COLUMN_LAST_MODIFIED,
+    };
+
+    /**
+     * Receives playable games as soon as they are found. Called from the scanning threads.
+     */
+    interface Listener {
+        void onGameFound(GameLibraryIndex.Entry entry);
+    }
+
+    private final ContentResolver resolver;
+    private final Uri treeUri;
+    // The games folder in the file system, null if it's only accessible through its provider.
+    private final File localFolder;
+    // Shared by all the entries of this folder.
+    private final String treeUriString;
+    private final GameLibraryIndex index;
+    private final int parallelism;
+    private final int maxDepth;
+
+    // Number of directories listed by the last scan.
+    private final AtomicInteger listingCount = new AtomicInteger();
+    // Time a directory was last listed or an archive last read.
+    private volatile long lastProgress = SystemClock.elapsedRealtime();
+
+    /**
+     * Result of listing a directory: its games and subdirectories, and whether it's a game.
+     */
+    private static class Listing {
+        final ArrayList<GameLibraryIndex.Entry> children = new ArrayList<>();
+        boolean hasMain = false;
+        boolean hasIcon = false;
+    }
+
+    /**
+     * @param localFolder the games folder in the file system if the app can read it directly,
+     *                    null otherwise
+     * @param parallelism how many directories are listed and archives read at once
+     * @param maxDepth    how deep games are searched, 1 only looks at the folder itself
+     */
+    GameScanner(ContentResolver resolver, Uri treeUri, File localFolder, GameLibraryIndex index, int parallelism,
+                int maxDepth) {
+        this.resolver = resolver;
+        this.treeUri = treeUri;
+        this.localFolder = localFolder;
+        this.treeUriString = treeUri.toString();
+        this.index = index;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    /**
+     * Scan the games folder. Entries that didn't change since the last scan are taken from the
+     * index, the others are examined in parallel: game directories are checked for main.lua and
+     * icon.png, other directories are walked until the maximum depth, and the metadata of
+     * archives is read.
+     *
+     * @param listener notified of every playable game as soon as it's found
+     * @param signal   checked at every directory boundary to abandon the scan, and passed to the
+     *                 provider queries so canceling it also ends the running ones
+     * @return the scanned entries of all depths in provider order, or null if the folder can't
+     * be accessed
+     * @throws OperationCanceledException if the scan was cancelled or its thread interrupted
+     */
+    public List<GameLibraryIndex.Entry> scan(Listener listener, CancellationSignal signal) {
+        long start = SystemClock.elapsedRealtime();
+        lastProgress = start;
+        listingCount.set(0);
+
+        String rootId = DocumentsContract.getTreeDocumentId(treeUri);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<GameLibraryIndex.Entry> scanned;
+        try {
+            // Unlike invoke, waiting on the future can be interrupted
+            scanned = pool.submit(new DirectoryTask(null, rootId, localFolder, 0, listener, signal)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // Workers stuck in a provider query are released once the provider sees the
+            // cancellation, and the pool goes away with them
+            pool.shutdownNow();
+        }
+
+        if (scanned == null) {
+            return null;
+        }
+
+        Log.d(TAG, "Scanned " + scanned.size() + " entries of " + treeUri + " with " + listingCount.get() +
+            (localFolder != null ? " file system" : " provider") + " listings in " +
+            (SystemClock.elapsedRealtime() - start) + "ms");
+        return scanned;
+    }
+
+    /**
+     * @return the {@link SystemClock#elapsedRealtime()} at which the running scan last listed a
+     * directory or read an archive, to tell a slow scan from a stuck one
+     */
+    public long getLastProgress() {
+        return lastProgress;
+    }
+
+    /**
+     * Lists a directory. If it contains a main.lua it's a game, otherwise its children are
+     * examined, forking a task for every subdirectory to list and every archive to read.
+     * Returns the entries found in the directory and below, in provider order.
+     */
+    private class DirectoryTask extends RecursiveTask<List<GameLibraryIndex.Entry>> {
+        // The listed directory, null for the games folder itself.
+        private final GameLibraryIndex.Entry directory;
+        private final String documentId;
+        // The listed directory in the file system, null to list it through the provider.
+        private final File file;
+        private final int depth;
+        private final Listener listener;
+        private final CancellationSignal signal;
+
+        DirectoryTask(GameLibraryIndex.Entry directory, String documentId, File file, int depth, Listener listener,
+                      CancellationSignal signal) {
+            this.directory = directory;
+            this.documentId = documentId;
+            this.file = file;
+            this.depth = depth;
+            this.listener = listener;
+            this.signal = signal;
+        }
+
+        @Override
+        protected List<GameLibraryIndex.Entry> compute() {
+            signal.throwIfCanceled();
+
+            listingCount.incrementAndGet();
+            Listing listing = file != null ? listFiles(file, documentId) : queryChildren(documentId, signal);
+            lastProgress = SystemClock.elapsedRealtime();
+            if (listing == null) {
+                return directory == null ? null : Collections.<GameLibraryIndex.Entry>emptyList();
+            }
+
+            if (directory != null) {
+                directory.valid = listing.hasMain;
+                directory.hasIcon = listing.hasIcon;
+
+                // The content of a game is never walked
+                if (listing.hasMain) {
+                    listener.onGameFound(directory);
+                    return Collections.emptyList();
+                } else if (depth >= maxDepth) {
+                    return Collections.emptyList();
+                }
+            }
+
+            return examineChildren(listing.children);
+        }
+
+        private List<GameLibraryIndex.Entry> examineChildren(List<GameLibraryIndex.Entry> children) {
+            int childDepth = depth + 1;
+            ArrayList<ForkJoinTask<List<GameLibraryIndex.Entry>>> subtrees = new ArrayList<>();
+            ArrayList<ForkJoinTask<?>> archives = new ArrayList<>();
+
+            for (GameLibraryIndex.Entry child : children) {
+                // Only examine the entry again if it changed since the last scan
+                GameLibraryIndex.Entry cached = index.get(treeUriString, child.documentId);
+                boolean upToDate = GameLibraryIndex.isUpToDate(cached, child);
+                if (upToDate) {
+                    child.copyDetails(cached);
+                }
+
+                ForkJoinTask<List<GameLibraryIndex.Entry>> subtree = null;
+
+                if (child.type == GameLibraryIndex.TYPE_ARCHIVE) {
+                    if (upToDate) {
+                        notifyIfValid(child);
+                    } else {
+                        Uri uri = file != null ? Uri.fromFile(new File(file, child.name)) :
+                            DocumentsContract.buildDocumentUriUsingTree(treeUri, child.documentId);
+                        archives.add(ForkJoinTask.adapt(() -> examineArchive(child, uri, listener, signal)).fork());
+                    }
+                } else if (upToDate && (child.valid || childDepth >= maxDepth)) {
+                    // A known game, or a known directory too deep to contain games
+                    notifyIfValid(child);
+                } else {
+                    // A directory which isn't a game is listed again even when its last modified
+                    // time is unchanged. That time only changes when an entry is added, removed
+                    // or renamed in the directory itself. A game below it getting a main.lua, or
+                    // an archive in it being rewritten in place, leaves it as it was, and only
+                    // listing the directory reveals the new times of its children. Only the
+                    // directory is listed, its unchanged children are taken from the index.
+                    File childFile = file != null ? new File(file, child.name) : null;
+                    subtree = new DirectoryTask(child, child.documentId, childFile, childDepth, listener, signal).fork();
+                }
+
+                subtrees.add(subtree);
+            }
+
+            ArrayList<GameLibraryIndex.Entry> scanned = new ArrayList<>(children.size());
+            for (int i = 0; i < children.size(); i++) {
+                scanned.add(children.get(i));
+                if (subtrees.get(i) != null) {
+                    scanned.addAll(subtrees.get(i).join());
+                }
+            }
+
+            for (ForkJoinTask<?> archive : archives) {
+                archive.join();
+            }
+
+            return scanned;
+        }
+
+        private void notifyIfValid(GameLibraryIndex.Entry entry) {
+            if (entry.valid) {
+                listener.onGameFound(entry);
+            }
+        }
+    }
+
+    private Listing queryChildren(String documentId, CancellationSignal signal) {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, documentId);
+        Cursor cursor = resolver.query(childrenUri, CHILD_PROJECTION, null, null, null, signal);
+        if (cursor == null) {
+            return null;
+        }
+
+        Listing listing = new Listing();
+        try {
+            while (cursor.moveToNext()) {
+                addChild(listing, cursor.getString(0), cursor.getString(1),
+                    Document.MIME_TYPE_DIR.equals(cursor.getString(2)),
+                    cursor.isNull(3) ? 0 : cursor.getLong(3),
+                    cursor.isNull(4) ? 0 : cursor.getLong(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return listing;
+    }
+
+    private Listing listFiles(File directory, String documentId) {
+        Listing listing = new Listing();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // Reads the type, size and time of every file with a single stat
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // Removed in the meantime
+                        continue;
+                    }
+
+                    addChild(listing, LocalDocuments.getChildDocumentId(documentId, name), name,
+                        attributes.isDirectory(), attributes.size(), attributes.lastModifiedTime().toMillis());
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                Log.w(TAG, "Failed to list " + directory, e);
+                return null;
+            }
+        } else {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return null;
+            }
+
+            for (File file : files) {
+                String name = file.getName();
+                addChild(listing, LocalDocuments.getChildDocumentId(documentId, name), name,
+                    file.isDirectory(), file.length(), file.lastModified());
+            }
+        }
+
+        return listing;
+    }
+
+    /**
+     * Note the files which make the listed directory a game, and keep the children which may be
+     * games themselves: directories and .love archives.
+     */
+    private void addChild(Listing listing, String documentId, String name, boolean isDirectory, long size,
+                          long lastModified) {
+        if (name == null) {
+            return;
+        }
+
+        if ("main.lua".equals(name)) {
+            listing.hasMain = true;
+        } else if (LoveArchiveReader.ICON_NAME.equals(name)) {
+            listing.hasIcon = true;
+        }
+
+        int type;
+        if (isDirectory) {
+            type = GameLibraryIndex.TYPE_DIRECTORY;
+        } else if (name.endsWith(".love")) {
+            type = GameLibraryIndex.TYPE_ARCHIVE;
+        } else {
+            return;
+        }
+
+        GameLibraryIndex.Entry entry = new GameLibraryIndex.Entry();
+        entry.type = type;
+        entry.treeUri = treeUriString;
+        entry.documentId = documentId;
+        entry.name = name;
+        entry.size = size;
+        entry.lastModified = lastModified;
+        listing.children.add(entry);
+    }
+
+    private void examineArchive(GameLibraryIndex.Entry entry, Uri uri, Listener listener, CancellationSignal signal) {
+        signal.throwIfCanceled();
+
+        LoveArchiveReader.Metadata metadata = LoveArchiveReader.readMetadata(resolver, uri, signal);
+        lastProgress = SystemClock.elapsedRealtime();
+        signal.throwIfCanceled();
+
+        // Unreadable archives are still listed, LÖVE will report what's wrong with them
+        entry.valid = true;
+        if (metadata != null) {
+            entry.title = metadata.title;
+            entry.version = metadata.version;
+            entry.hasIcon = metadata.hasIcon;
+        }
+        listener.onGameFound(entry);
+    }
+}
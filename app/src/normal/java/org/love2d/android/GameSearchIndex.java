@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the games of the library with ranked fuzzy matching.
+ * <p>
+ * The display name, file or folder name and conf.lua title of every game are normalized once
+ * (lowercased and without accents) when games are added, and stored in a single character
+ * buffer. Queries are debounced and answered on a background thread: every game is scored by
+ * {@link FuzzyMatcher}, and the best matches are kept in a bounded heap ordered by score, then
+ * by recency. When the query grows only the previous matches are scored again. Scoring works on
+ * primitive arrays and doesn't allocate per game, so even large libraries are searched within a
+ * frame.
+ * <p>
+ * Without a query the whole library is shown in the chosen sort order, kept in an index which is
+ * merged with new games as they are added. A launch only moves the launched game, found and
+ * placed again by binary search, so the library is never sorted again because of it.
+ * <p>
+ * Results are a {@link GameLibrary} together with the indices of the matching games in it.
+ * Public methods must be called from the main thread. Results are delivered on the main thread.
+ */
+class GameSearchIndex {
+    private static final String TAG = "GameSearchIndex";
+    private static final long DEBOUNCE_DELAY_MS = 150;
+    private static final int MAX_RESULTS = 500;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{Mn}+");
+
+    // Normalized strings stored for every game, in this order, in the search text.
+    private static final int TEXT_NAME = 0;
+    private static final int TEXT_TITLE = 1;
+    private static final int TEXT_FILE_NAME = 2;
+    private static final int TEXT_COUNT = 3;
+
+    static final int SORT_RECENT = 0;
+    static final int SORT_MOST_PLAYED = 1;
+    static final int SORT_NAME = 2;
+
+    interface Listener {
+        void onResults(GameLibrary library, int[] indices);
+    }
+
+    private final Listener listener;
+    private final LaunchHistory history;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Runnable searchRunnable = this::search;
+
+    // Latest query typed by the user, read by the worker.
+    private volatile String query = "";
+
+    // Only accessed from the worker thread.
+    private GameLibrary.Builder builder = new GameLibrary.Builder();
+    private GameLibrary library = GameLibrary.EMPTY;
+    private char[] searchText = new char[256];
+    private int searchTextLength = 0;
+    private int[] searchOffsets = new int[1];
+    private final FuzzyMatcher matcher = new FuzzyMatcher();
+
+    // Launch history of every game of the library, and the library in sort order.
+    private int sortOrder = SORT_RECENT;
+    private long[] lastLaunches = new long[0];
+    private int[] launchCounts = new int[0];
+    private int[] order = new int[0];
+    private int[] sortBuffer = new int[0];
+
+    // All matches of the last query, to narrow down from when the query grows.
+    private String lastQuery = null;
+    private int[] lastMatches = null;
+    private int lastMatchCount = 0;
+
+    // Scratch buffers reused by every search. The matches are written to the spare buffer while
+    // the previous matches may be narrowed down from.
+    private int[] spareMatches = new int[0];
+    private int[] heapIndices = new int[MAX_RESULTS];
+    private int[] heapScores = new int[MAX_RESULTS];
+
+    GameSearchIndex(LaunchHistory history, Listener listener) {
+        this.history = history;
+        this.listener = listener;
+    }
+
+    /**
+     * Replace the searched games and publish the results of the current query.
+     */
+    public void setGames(List<GameLibraryIndex.Entry> games) {
+        worker.execute(() -> {
+            reset();
+            append(games);
+
+            long bytes = library.getByteCount() + searchText.length * 2L + searchOffsets.length * 4L +
+                lastLaunches.length * 8L + (launchCounts.length + order.length + sortBuffer.length) * 4L;
+            Log.d(TAG, "Library of " + library.size() + " games uses " + bytes / 1024 + " KiB" +
+                (library.size() > 0 ? " (" + bytes / library.size() + " bytes per game)" : ""));
+
+            publish(query);
+        });
+    }
+
+    /**
+     * Add the games which are not searched yet, and publish the results of the current query.
+     */
+    public void addGames(List<GameLibraryIndex.Entry> games) {
+        worker.execute(() -> {
+            if (append(games)) {
+                publish(query);
+            }
+        });
+    }
+
+    /**
+     * Order the library without a query by {@link #SORT_RECENT}, {@link #SORT_MOST_PLAYED} or
+     * {@link #SORT_NAME}.
+     */
+    public void setSortOrder(int sortOrder) {
+        worker.execute(() -> {
+            this.sortOrder = sortOrder;
+            sort(order, 0, library.size());
+            publish(query);
+        });
+    }
+
+    /**
+     * Move a game launched at the given time to its new place in the sort order. The launch must
+     * be recorded in the history separately.
+     */
+    public void onGameLaunched(long stableId, long time) {
+        worker.execute(() -> {
+            int index = builder.indexOf(stableId);
+            if (index < 0 || index >= library.size()) {
+                return;
+            }
+
+            int count = library.size();
+            int position = find(index, count);
+            System.arraycopy(order, position + 1, order, position, count - position - 1);
+
+            lastLaunches[index] = Math.max(lastLaunches[index], time);
+            launchCounts[index]++;
+
+            position = findInsertion(index, count - 1);
+            System.arraycopy(order, position, order, position + 1, count - position - 1);
+            order[position] = index;
+
+            if (normalize(query).isEmpty()) {
+                publish(query);
+            }
+        });
+    }
+
+    /**
+     * Search for a new query once the user stops typing.
+     */
+    public void setQuery(String query) {
+        this.query = query;
+        mainHandler.removeCallbacks(searchRunnable);
+        mainHandler.postDelayed(searchRunnable, DEBOUNCE_DELAY_MS);
+    }
+
+    public void shutdown() {
+        mainHandler.removeCallbacks(searchRunnable);
+        worker.shutdownNow();
+    }
+
+    private void search() {
+        worker.execute(() -> publish(query));
+    }
+
+    private void reset() {
+        builder = new GameLibrary.Builder();
+        library = builder.build();
+        searchTextLength = 0;
+        order = new int[0];
+        lastQuery = null;
+        lastMatches = null;
+    }
+
+    private boolean append(List<GameLibraryIndex.Entry> games) {
+        int start = builder.size();
+
+        for (GameLibraryIndex.Entry game : games) {
+            builder.add(game);
+        }
+
+        int count = builder.size();
+        if (count == start && start > 0) {
+            return false;
+        }
+
+        library = builder.build();
+        if (searchOffsets.length < count * TEXT_COUNT + 1) {
+            searchOffsets = Arrays.copyOf(searchOffsets, Math.max(searchOffsets.length * 2, count * TEXT_COUNT + 1));
+        }
+
+        for (int i = start; i < count; i++) {
+            appendSearchText(i * TEXT_COUNT + TEXT_NAME, library.getName(i));
+            appendSearchText(i * TEXT_COUNT + TEXT_TITLE, library.getTitle(i));
+            appendSearchText(i * TEXT_COUNT + TEXT_FILE_NAME, library.getFileName(i));
+        }
+
+        if (order.length < count) {
+            int capacity = Math.max(order.length * 2, count);
+            lastLaunches = Arrays.copyOf(lastLaunches, capacity);
+            launchCounts = Arrays.copyOf(launchCounts, capacity);
+            order = Arrays.copyOf(order, capacity);
+            sortBuffer = new int[capacity];
+        }
+
+        // Sort the new games, then merge them into the games already sorted
+        for (int i = start; i < count; i++) {
+            long stableId = library.getStableId(i);
+            lastLaunches[i] = history.getLastLaunch(stableId);
+            launchCounts[i] = history.getLaunchCount(stableId);
+            order[i] = i;
+        }
+        sort(order, start, count);
+        merge(order, 0, start, count);
+
+        // Previous matches don't include the new games
+        lastQuery = null;
+        lastMatches = null;
+        return true;
+    }
+
+    private void appendSearchText(int field, String value) {
+        String normalized = normalize(value);
+        int length = normalized.length();
+
+        if (searchTextLength + length > searchText.length) {
+            searchText = Arrays.copyOf(searchText, Math.max(searchText.length * 2, searchTextLength + length));
+        }
+
+        normalized.getChars(0, length, searchText, searchTextLength);
+        searchTextLength += length;
+        // The end of a string is the start of the next one
+        searchOffsets[field + 1] = searchTextLength;
+    }
+
+    private void publish(String rawQuery) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        String normalizedQuery = normalize(rawQuery);
+        GameLibrary results = library;
+        int[] indices;
+
+        if (normalizedQuery.isEmpty()) {
+            // Nothing to rank, show the whole library in sort order
+            indices = Arrays.copyOf(order, results.size());
+            lastQuery = null;
+            lastMatches = null;
+        } else {
+            indices = rank(normalizedQuery);
+        }
+
+        Log.d(TAG, "Searched " + results.size() + " games in " + (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
+
+        mainHandler.post(() -> {
+            // Drop results for a query the user already changed
+            if (rawQuery.equals(query)) {
+                listener.onResults(results, indices);
+            }
+        });
+    }
+
+    private int[] rank(String normalizedQuery) {
+        int count = library.size();
+        matcher.setQuery(normalizedQuery);
+
+        // A longer query allowing the same number of typos can only match a subset of the games
+        // the previous query matched
+        int[] candidates = null;
+        int candidateCount = count;
+        if (lastQuery != null && normalizedQuery.contains(lastQuery) &&
+            FuzzyMatcher.getMaxErrors(normalizedQuery.length()) == FuzzyMatcher.getMaxErrors(lastQuery.length())) {
+            candidates = lastMatches;
+            candidateCount = lastMatchCount;
+        }
+
+        int[] found = spareMatches.length >= count ? spareMatches : new int[count];
+
+        int matchCount = 0;
+        int heapSize = 0;
+
+        for (int i = 0; i < candidateCount; i++) {
+            int index = candidates != null ? candidates[i] : i;
+            int score = Math.max(score(index, TEXT_NAME),
+                Math.max(score(index, TEXT_TITLE) * 9 / 10, score(index, TEXT_FILE_NAME) * 8 / 10));
+
+            if (score == FuzzyMatcher.NO_MATCH) {
+                continue;
+            }
+
+            found[matchCount++] = index;
+
+            if (heapSize < MAX_RESULTS) {
+                heapIndices[heapSize] = index;
+                heapScores[heapSize] = score;
+                siftUp(heapSize++);
+            } else if (isBetter(score, index, heapScores[0], heapIndices[0])) {
+                heapIndices[0] = index;
+                heapScores[0] = score;
+                siftDown(0, heapSize);
+            }
+        }
+
+        spareMatches = lastMatches != null ? lastMatches : new int[0];
+        lastQuery = normalizedQuery;
+        lastMatches = found;
+        lastMatchCount = matchCount;
+
+        // Pop the heap from the worst match to the best one
+        int[] ranked = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            ranked[i] = heapIndices[0];
+            heapIndices[0] = heapIndices[i];
+            heapScores[0] = heapScores[i];
+            siftDown(0, i);
+        }
+
+        return ranked;
+    }
+
+    private int score(int index, int field) {
+        int offset = index * TEXT_COUNT + field;
+        return matcher.score(searchText, searchOffsets[offset], searchOffsets[offset + 1]);
+    }
+
+    /**
+     * Order matches by score, then by most recently modified.
+     */
+    private boolean isBetter(int score, int index, int otherScore, int otherIndex) {
+        if (score != otherScore) {
+            return score > otherScore;
+        }
+        return library.getLastModified(index) > library.getLastModified(otherIndex);
+    }
+
+    /**
+     * Compare two games in the sort order. Games which are otherwise equal are ordered by name,
+     * then by index, so every game has a single place in the order.
+     */
+    private int compare(int a, int b) {
+        int result = 0;
+        if (sortOrder == SORT_MOST_PLAYED) {
+            result = Integer.compare(launchCounts[b], launchCounts[a]);
+        }
+        if (result == 0 && sortOrder != SORT_NAME) {
+            result = Long.compare(lastLaunches[b], lastLaunches[a]);
+        }
+        if (result == 0) {
+            result = compareNames(a, b);
+        }
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    private int compareNames(int a, int b) {
+        int offsetA = a * TEXT_COUNT + TEXT_NAME;
+        int offsetB = b * TEXT_COUNT + TEXT_NAME;
+        int i = searchOffsets[offsetA];
+        int j = searchOffsets[offsetB];
+        int endA = searchOffsets[offsetA + 1];
+        int endB = searchOffsets[offsetB + 1];
+
+        for (; i < endA && j < endB; i++, j++) {
+            if (searchText[i] != searchText[j]) {
+                return searchText[i] - searchText[j];
+            }
+        }
+        return (endA - i) - (endB - j);
+    }
+
+    /**
+     * @return the position of a game in the first count entries of the order
+     */
+    private int find(int index, int count) {
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(order[middle], index);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        throw new IllegalStateException("Game " + index + " is not in the sort order");
+    }
+
+    /**
+     * @return where a game goes in the first count entries of the order
+     */
+    private int findInsertion(int index, int count) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(order[middle], index) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merge sort a range of game indices, which is stable and doesn't box them.
+     */
+    private void sort(int[] indices, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        sort(indices, from, middle);
+        sort(indices, middle, to);
+        merge(indices, from, middle, to);
+    }
+
+    /**
+     * Merge the sorted ranges [from, middle) and [middle, to).
+     */
+    private void merge(int[] indices, int from, int middle, int to) {
+        if (from == middle || middle == to || compare(indices[middle - 1], indices[middle]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(indices, from, sortBuffer, from, middle - from);
+        int i = from;
+        int j = middle;
+        int k = from;
+
+        while (i < middle && j < to) {
+            indices[k++] = compare(sortBuffer[i], indices[j]) <= 0 ? sortBuffer[i++] : indices[j++];
+        }
+        while (i < middle) {
+            indices[k++] = sortBuffer[i++];
+        }
+    }
+
+    // The heap keeps the worst of the best matches at its root.
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!isBetter(heapScores[parent], heapIndices[parent], heapScores[position], heapIndices[position])) {
+                break;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position, int size) {
+        while (true) {
+            int worst = position;
+            int left = position * 2 + 1;
+            int right = left + 1;
+
+            if (left < size && isBetter(heapScores[worst], heapIndices[worst], heapScores[left], heapIndices[left])) {
+                worst = left;
+            }
+            if (right < size && isBetter(heapScores[worst], heapIndices[worst], heapScores[right], heapIndices[right])) {
+                worst = right;
+            }
+            if (worst == position) {
+                return;
+            }
+
+            swap(worst, position);
+            position = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int index = heapIndices[a];
+        heapIndices[a] = heapIndices[b];
+        heapIndices[b] = index;
+
+        int score = heapScores[a];
+        heapScores[a] = heapScores[b];
+        heapScores[b] = score;
+    }
+
+    /**
+     * Lowercase a name and strip its accents, so "Café" matches "cafe".
+     */
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
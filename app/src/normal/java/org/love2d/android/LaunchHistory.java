@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Remembers how often and when every game was launched, by {@link GameLibrary} stable ID.
+ * <p>
+ * A launch appends a fixed size record to a log file, which costs a single small write. Once
+ * the log holds enough records it is compacted into a file of per game counters, written
+ * atomically, and the log starts over. Loading reads the counters, then replays the log.
+ * <p>
+ * Every launch is numbered, and the counters keep the number of the latest launch folded into
+ * them, so launches are never counted twice or lost even if the clock moved backwards.
+ * <p>
+ * Methods are thread-safe. Launches are written on a background thread.
+ */
+class LaunchHistory {
+    private static final String TAG = "LaunchHistory";
+    private static final String LOG_FILE_NAME = "launch_history.log";
+    private static final String COUNTS_FILE_NAME = "launch_counts.dat";
+
+    private static final int MAGIC = 0x4C4F5648; // "LOVH"
+    private static final int VERSION = 2;
+
+    // Launch records in the log before it's folded into the counters.
+    private static final int COMPACT_THRESHOLD = 64;
+
+    private static class Stats {
+        int launchCount;
+        long lastLaunch;
+    }
+
+    private final File logFile;
+    private final AtomicFile countsFile;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final LongSparseArray<Stats> games = new LongSparseArray<>();
+    // Number of the latest launch.
+    private long sequence = 0;
+    // Only accessed by the writer once loaded, so launches never wait for the disk.
+    private int logRecords = 0;
+    // Number of the latest launch folded into the counters. Log records up to it were compacted
+    // already, in case the log couldn't be deleted after compaction.
+    private long compactedSequence = 0;
+
+    LaunchHistory(File dir) {
+        logFile = new File(dir, LOG_FILE_NAME);
+        countsFile = new AtomicFile(new File(dir, COUNTS_FILE_NAME));
+    }
+
+    /**
+     * Read the history from disk. Unreadable files leave the history empty, it's only used to
+     * order the library.
+     */
+    public synchronized void load() {
+        games.clear();
+        sequence = 0;
+        logRecords = 0;
+        compactedSequence = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(countsFile.openRead()))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                compactedSequence = in.readLong();
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Stats stats = new Stats();
+                    long stableId = in.readLong();
+                    stats.launchCount = in.readInt();
+                    stats.lastLaunch = in.readLong();
+                    games.put(stableId, stats);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing launched yet
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable launch counters", e);
+            games.clear();
+            compactedSequence = 0;
+        }
+        sequence = compactedSequence;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (true) {
+                long stableId = in.readLong();
+                long time = in.readLong();
+                long number = in.readLong();
+                if (number > compactedSequence) {
+                    apply(stableId, time);
+                }
+                sequence = Math.max(sequence, number);
+                logRecords++;
+            }
+        } catch (FileNotFoundException | EOFException e) {
+            // End of the log, a record cut short by a crash is dropped
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read launch log", e);
+        }
+    }
+
+    /**
+     * Remember that a game was launched at the given time.
+     */
+    public synchronized void record(long stableId, long time) {
+        long number = ++sequence;
+        apply(stableId, time);
+        writer.execute(() -> append(stableId, time, number));
+    }
+
+    public synchronized int getLaunchCount(long stableId) {
+        Stats stats = games.get(stableId);
+        return stats != null ? stats.launchCount : 0;
+    }
+
+    /**
+     * @return the time of the last launch of a game, or 0 if it was never launched
+     */
+    public synchronized long getLastLaunch(long stableId) {
+        Stats stats = games.get(stableId);
+        return stats != null ? stats.lastLaunch : 0;
+    }
+
+    /**
+     * Stop once the pending launches are written.
+     */
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    private void apply(long stableId, long time) {
+        Stats stats = games.get(stableId);
+        if (stats == null) {
+            stats = new Stats();
+            games.put(stableId, stats);
+        }
+
+        stats.launchCount++;
+        stats.lastLaunch = Math.max(stats.lastLaunch, time);
+    }
+
+    private void append(long stableId, long time, long number) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)))) {
+            out.writeLong(stableId);
+            out.writeLong(time);
+            out.writeLong(number);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write launch log", e);
+            return;
+        }
+
+        if (++logRecords >= COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        long until;
+        int count;
+        long[] stableIds;
+        int[] launchCounts;
+        long[] lastLaunches;
+
+        // Launches recorded but not written yet are part of the counters, so their records are
+        // skipped once they are written
+        synchronized (this) {
+            until = sequence;
+            count = games.size();
+            stableIds = new long[count];
+            launchCounts = new int[count];
+            lastLaunches = new long[count];
+
+            for (int i = 0; i < count; i++) {
+                Stats stats = games.valueAt(i);
+                stableIds[i] = games.keyAt(i);
+                launchCounts[i] = stats.launchCount;
+                lastLaunches[i] = stats.lastLaunch;
+            }
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = countsFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(until);
+            out.writeInt(count);
+
+            for (int i = 0; i < count; i++) {
+                out.writeLong(stableIds[i]);
+                out.writeInt(launchCounts[i]);
+                out.writeLong(lastLaunches[i]);
+            }
+
+            out.flush();
+            countsFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write launch counters", e);
+            if (stream != null) {
+                countsFile.failWrite(stream);
+            }
+            return;
+        }
+
+        compactedSequence = until;
+        if (logFile.delete()) {
+            logRecords = 0;
+        }
+        Log.d(TAG, "Compacted launch log into the counters of " + count + " games");
+    }
+}
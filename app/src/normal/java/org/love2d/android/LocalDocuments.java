@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Environment;
+import android.provider.DocumentsContract;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Maps documents of games folders to files when the app can read them directly.
+ * <p>
+ * This is the case for the folders of {@link LoveDocumentsProvider}, which serves the app's
+ * external files directory, and for folders of the external storage provider inside the app's
+ * own Android/data directory. Both providers build document IDs as a root ID, a colon and a
+ * path relative to that root, so the children of a directory can be named without asking the
+ * provider.
+ */
+class LocalDocuments {
+    private static final String EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents";
+    private static final String EXTERNAL_STORAGE_ROOT = "primary";
+    // Must match the authority and root of LoveDocumentsProvider.
+    private static final String OWN_AUTHORITY_SUFFIX = ".documents";
+    private static final String OWN_ROOT = "root";
+
+    /**
+     * Find the file of a document of a games folder.
+     *
+     * @param treeUri    the tree URI of the games folder
+     * @param documentId the document ID of the folder or of a document below it
+     * @return the file, or null if the app can't read it directly
+     */
+    static File getFile(Context context, Uri treeUri, String documentId) {
+        String authority = treeUri.getAuthority();
+        int splitIndex = documentId.indexOf(':');
+        String rootId = splitIndex < 0 ? documentId : documentId.substring(0, splitIndex);
+        String path = splitIndex < 0 ? "" : documentId.substring(splitIndex + 1);
+
+        if ((context.getPackageName() + OWN_AUTHORITY_SUFFIX).equals(authority) && OWN_ROOT.equals(rootId)) {
+            File baseDir = context.getExternalFilesDir(null);
+            return baseDir != null ? new File(baseDir, path) : null;
+        }
+
+        if (EXTERNAL_STORAGE_AUTHORITY.equals(authority) && EXTERNAL_STORAGE_ROOT.equals(rootId)) {
+            // Only the app's own directory is readable without storage permissions
+            File file = new File(Environment.getExternalStorageDirectory(), path);
+            File appDir = context.getExternalFilesDir(null);
+            return appDir != null && isInside(file, appDir.getParentFile()) ? file : null;
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the directory of a games folder.
+     *
+     * @return the directory, or null if the app can't read it directly
+     */
+    static File getDirectory(Context context, Uri treeUri) {
+        try {
+            return getFile(context, treeUri, DocumentsContract.getTreeDocumentId(treeUri));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the document ID the provider gives to a file in a directory
+     */
+    static String getChildDocumentId(String parentDocumentId, String name) {
+        if (parentDocumentId.indexOf(':') < 0) {
+            return parentDocumentId + ':' + name;
+        } else if (parentDocumentId.endsWith(":") || parentDocumentId.endsWith("/")) {
+            return parentDocumentId + name;
+        }
+        return parentDocumentId + '/' + name;
+    }
+
+    private static boolean isInside(File file, File directory) {
+        if (directory == null) {
+            return false;
+        }
+
+        try {
+            String path = file.getCanonicalPath();
+            String directoryPath = directory.getCanonicalPath();
+            return path.equals(directoryPath) || path.startsWith(directoryPath + File.separator);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
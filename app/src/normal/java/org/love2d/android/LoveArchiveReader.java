@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the metadata of a .love archive without decompressing it.
+ * <p>
+ * Only the end of central directory record and the central directory are read to locate the
+ * entries of interest, then just those entries are inflated. The amount of data read depends on
+ * the number of files in the archive, not on the archive size.
+ */
+class LoveArchiveReader {
+    private static final String TAG = "LoveArchiveReader";
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    private static final int EOCD_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    // Don't bother with archives whose central directory is unreasonably large.
+    private static final int MAX_CENTRAL_DIRECTORY_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_CONF_SIZE = 64 * 1024;
+    static final int MAX_ICON_SIZE = 1024 * 1024;
+
+    static final String CONF_NAME = "conf.lua";
+    static final String ICON_NAME = "icon.png";
+
+    private static final Pattern TITLE_PATTERN = Pattern.compile("\\bt\\.(?:window\\.)?title\\s*=\\s*([\"'])(.*?)\\1");
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\bt\\.version\\s*=\\s*([\"'])(.*?)\\1");
+
+    static class Metadata {
+        // Title and LÖVE version from conf.lua, null if not set.
+        public String title;
+        public String version;
+        // Denote if the archive has main.lua and icon.png at its root.
+        public boolean hasMain;
+        public boolean hasIcon;
+    }
+
+    private static class Entry {
+        int method;
+        long compressedSize;
+        long size;
+        long localHeaderOffset;
+    }
+
+    private final FileChannel channel;
+    private final long archiveSize;
+    private long bytesRead = 0;
+
+    private Entry conf;
+    private Entry icon;
+    private boolean hasMain;
+
+    private LoveArchiveReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        archiveSize = channel.size();
+    }
+
+    /**
+     * Read the title, version and icon presence of a .love archive.
+     *
+     * @return the metadata, or null if the archive can't be read
+     */
+    public static Metadata readMetadata(ContentResolver resolver, Uri uri, CancellationSignal signal) {
+        try (FileInputStream stream = open(resolver, uri, signal)) {
+            LoveArchiveReader reader = new LoveArchiveReader(stream.getChannel());
+            if (!reader.readCentralDirectory()) {
+                return null;
+            }
+
+            Metadata metadata = new Metadata();
+            metadata.hasMain = reader.hasMain;
+            metadata.hasIcon = reader.icon != null;
+
+            if (reader.conf != null) {
+                byte[] data = reader.readEntry(reader.conf, MAX_CONF_SIZE);
+                if (data != null) {
+                    parseConf(new String(data, StandardCharsets.UTF_8), metadata);
+                }
+            }
+
+            Log.d(TAG, "Read " + reader.bytesRead + " of " + reader.archiveSize + " bytes from " + uri);
+            return metadata;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read metadata of " + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Read a single file from the root of a .love archive.
+     *
+     * @return the uncompressed content, or null if the file is missing or larger than maxSize
+     */
+    public static byte[] readFile(ContentResolver resolver, Uri uri, String name, int maxSize) {
+        try (FileInputStream stream = open(resolver, uri, null)) {
+            LoveArchiveReader reader = new LoveArchiveReader(stream.getChannel());
+            Entry entry = reader.findEntry(name);
+            return entry != null ? reader.readEntry(entry, maxSize) : null;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to read " + name + " from " + uri, e);
+            return null;
+        }
+    }
+
+    private static FileInputStream open(ContentResolver resolver, Uri uri, CancellationSignal signal)
+        throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r", signal);
+        if (pfd == null) {
+            throw new FileNotFoundException("No file descriptor for " + uri);
+        }
+        // The stream takes ownership of the descriptor
+        return new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+    }
+
+    private Entry findEntry(String name) throws IOException {
+        if (!readCentralDirectory()) {
+            return null;
+        }
+
+        if (CONF_NAME.equals(name)) {
+            return conf;
+        } else if (ICON_NAME.equals(name)) {
+            return icon;
+        }
+        return null;
+    }
+
+    /**
+     * Locate the central directory through the end of central directory record and collect the
+     * entries of interest.
+     *
+     * @return false if this is not a zip archive the reader understands
+     */
+    private boolean readCentralDirectory() throws IOException {
+        if (archiveSize < EOCD_SIZE) {
+            return false;
+        }
+
+        // The record is at the very end, followed by a comment of up to 64 KiB. Most archives
+        // have no comment, so try the last bytes alone first.
+        ByteBuffer tail = read(archiveSize - EOCD_SIZE, EOCD_SIZE);
+        int eocd = tail.getInt(0) == EOCD_SIGNATURE ? 0 : -1;
+
+        if (eocd < 0 && archiveSize > EOCD_SIZE) {
+            int tailSize = (int) Math.min(archiveSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+            tail = read(archiveSize - tailSize, tailSize);
+
+            for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == EOCD_SIGNATURE) {
+                    eocd = i;
+                    break;
+                }
+            }
+        }
+
+        if (eocd < 0) {
+            return false;
+        }
+
+        int entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long centralSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long centralOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        // Zip64 archives are not supported, but .love files are never that large
+        if (entryCount == 0xFFFF || centralOffset == 0xFFFFFFFFL || centralSize > MAX_CENTRAL_DIRECTORY_SIZE ||
+            centralOffset + centralSize > archiveSize) {
+            return false;
+        }
+
+        ByteBuffer central = read(centralOffset, (int) centralSize);
+        int position = 0;
+
+        for (int i = 0; i < entryCount && position + CENTRAL_HEADER_SIZE <= centralSize; i++) {
+            if (central.getInt(position) != CENTRAL_SIGNATURE) {
+                return false;
+            }
+
+            int nameLength = central.getShort(position + 28) & 0xFFFF;
+            int extraLength = central.getShort(position + 30) & 0xFFFF;
+            int commentLength = central.getShort(position + 32) & 0xFFFF;
+            int nameStart = position + CENTRAL_HEADER_SIZE;
+
+            if (nameStart + nameLength > centralSize) {
+                return false;
+            }
+
+            String name = new String(central.array(), nameStart, nameLength, StandardCharsets.UTF_8);
+
+            if ("main.lua".equals(name)) {
+                hasMain = true;
+            } else if (CONF_NAME.equals(name) || ICON_NAME.equals(name)) {
+                Entry entry = new Entry();
+                entry.method = central.getShort(position + 10) & 0xFFFF;
+                entry.compressedSize = central.getInt(position + 20) & 0xFFFFFFFFL;
+                entry.size = central.getInt(position + 24) & 0xFFFFFFFFL;
+                entry.localHeaderOffset = central.getInt(position + 42) & 0xFFFFFFFFL;
+
+                if (CONF_NAME.equals(name)) {
+                    conf = entry;
+                } else {
+                    icon = entry;
+                }
+            }
+
+            position = nameStart + nameLength + extraLength + commentLength;
+        }
+
+        return true;
+    }
+
+    private byte[] readEntry(Entry entry, int maxSize) throws IOException {
+        if (entry.size > maxSize || entry.compressedSize > maxSize) {
+            return null;
+        }
+
+        // The local header can have a different extra field length than the central one
+        ByteBuffer local = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_SIGNATURE) {
+            return null;
+        }
+
+        int nameLength = local.getShort(26) & 0xFFFF;
+        int extraLength = local.getShort(28) & 0xFFFF;
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        byte[] compressed = read(dataOffset, (int) entry.compressedSize).array();
+
+        if (entry.method == 0) {
+            return compressed;
+        } else if (entry.method != 8) {
+            return null;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[(int) entry.size];
+            int length = 0;
+
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+
+            return length == data.length ? data : null;
+        } catch (DataFormatException e) {
+            Log.w(TAG, "Corrupted entry in archive", e);
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of archive");
+            }
+        }
+
+        bytesRead += length;
+        return buffer;
+    }
+
+    private static void parseConf(String conf, Metadata metadata) {
+        Matcher title = TITLE_PATTERN.matcher(conf);
+        if (title.find()) {
+            metadata.title = title.group(2);
+        }
+
+        Matcher version = VERSION_PATTERN.matcher(conf);
+        if (version.find()) {
+            metadata.version = version.group(2);
+        }
+    }
+}
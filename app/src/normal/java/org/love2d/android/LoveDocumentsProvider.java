@@ -23,29 +23,32 @@ package org.love2d.android;
 
 import static android.os.Build.VERSION.SDK_INT;
 
+import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Point;
 import android.os.Build;
 import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.DocumentsContract.Document;
 import android.provider.DocumentsContract.Root;
 import android.provider.DocumentsProvider;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.Objects;
-import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages documents and exposes them to the Android system for sharing.
@@ -83,15 +86,33 @@ public class LoveDocumentsProvider extends DocumentsProvider {
     private static final int MAX_LAST_MODIFIED = 5;
 
     private static final String ROOT = "root";
+    private static final String LOVE_MIME_TYPE = "application/x-love-game";
+
+    // MIME types by extension, as MimeTypeMap gives them, looked up once per extension.
+    private static final ConcurrentHashMap<String, String> MIME_TYPES = new ConcurrentHashMap<>();
+
+    static {
+        MIME_TYPES.put("love", LOVE_MIME_TYPE);
+    }
 
     // This file is the base of our root
     private File mBaseDir;
+    // File names under the root, for searches
+    private DocumentIndex mIndex;
+    private String mBasePath;
+    private int mUid;
+    // Title of the root, loaded once it's needed
+    private volatile String mAppLabel;
 
     @Override
     public boolean onCreate() {
         Log.v(TAG, "onCreate");
 
         mBaseDir = Objects.requireNonNull(getContext()).getExternalFilesDir(null);
+        mBasePath = mBaseDir.getAbsolutePath();
+        mUid = Os.getuid();
+        // Only built once searched, the provider is created with every app process
+        mIndex = new DocumentIndex(mBaseDir, getContext().getFilesDir());
         return true;
     }
 
@@ -121,7 +142,7 @@ public class LoveDocumentsProvider extends DocumentsProvider {
             Root.FLAG_SUPPORTS_IS_CHILD);
 
         // COLUMN_TITLE is the root title (e.g. what will be displayed to identify your provider).
-        row.add(Root.COLUMN_TITLE, Objects.requireNonNull(getContext()).getApplicationInfo().loadLabel(getContext().getPackageManager()).toString());
+        row.add(Root.COLUMN_TITLE, getAppLabel());
 
         // This document id must be unique within this provider and consistent across time.  The
         // system picker UI may save it and refer to it later.
@@ -148,46 +169,70 @@ public class LoveDocumentsProvider extends DocumentsProvider {
         final MatrixCursor result = new MatrixCursor(resolveDocumentProjection(projection));
 
         final File parent = getFileForDocId(rootId);
+        final long start = SystemClock.elapsedRealtime();
 
-        // Create a queue to store the most recent documents, which orders by last modified.
-        PriorityQueue<File> lastModifiedFiles = new PriorityQueue<File>(5, new Comparator<File>() {
-            public int compare(File i, File j) {
-                return Long.compare(i.lastModified(), j.lastModified());
-            }
-        });
-
-        // Iterate through all files and directories in the file structure under the root.  If
-        // the file is more recent than the least recently modified, add it to the queue,
-        // limiting the number of results.
-        final LinkedList<File> pending = new LinkedList<File>();
+        // Keep the most recent files in a bounded min-heap on last modified time, so the least
+        // recent of them is the one replaced. Every file is stat'ed exactly once.
+        final long[] heapTimes = new long[MAX_LAST_MODIFIED];
+        final File[] heapFiles = new File[MAX_LAST_MODIFIED];
+        int heapSize = 0;
+        int fileCount = 0;
 
-        // Start by adding the parent to the list of files to be processed
+        // Iterate through all files and directories in the file structure under the root.
+        final ArrayDeque<File> pending = new ArrayDeque<>();
         pending.add(parent);
 
-        // Do while we still have unexamined files
+        // Do while we still have unexamined directories
         while (!pending.isEmpty()) {
-            // Take a file from the list of unprocessed files
-            final File file = pending.removeFirst();
-            if (file.isDirectory()) {
-                // If it's a directory, add all its children to the unprocessed list
-                File[] files = file.listFiles();
-
-                if (files != null) {
-                    Collections.addAll(pending, files);
+            final File directory = pending.removeFirst();
+            final String[] names = directory.list();
+            if (names == null) {
+                continue;
+            }
+
+            for (String name : names) {
+                final File file = new File(directory, name);
+                final StructStat stat;
+                try {
+                    stat = Os.stat(file.getPath());
+                } catch (ErrnoException e) {
+                    // Deleted meanwhile, or not accessible
+                    continue;
+                }
+
+                if (OsConstants.S_ISDIR(stat.st_mode)) {
+                    pending.add(file);
+                    continue;
+                }
+
+                fileCount++;
+                final long lastModified = getLastModified(stat);
+                if (heapSize < MAX_LAST_MODIFIED) {
+                    heapTimes[heapSize] = lastModified;
+                    heapFiles[heapSize] = file;
+                    siftUp(heapTimes, heapFiles, heapSize++);
+                } else if (lastModified > heapTimes[0]) {
+                    heapTimes[0] = lastModified;
+                    heapFiles[0] = file;
+                    siftDown(heapTimes, heapFiles, 0, heapSize);
                 }
-            } else {
-                // If it's a file, add it to the ordered queue.
-                lastModifiedFiles.add(file);
             }
         }
 
-        // Add the most recent files to the cursor, not exceeding the max number of results.
-        int includedCount = 0;
-        while (includedCount < MAX_LAST_MODIFIED + 1 && !lastModifiedFiles.isEmpty()) {
-            final File file = lastModifiedFiles.remove();
+        // Pop the heap from the least recent file, and add the files from the most recent one
+        final File[] recent = new File[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            recent[i] = heapFiles[0];
+            heapTimes[0] = heapTimes[i];
+            heapFiles[0] = heapFiles[i];
+            siftDown(heapTimes, heapFiles, 0, i);
+        }
+        for (File file : recent) {
             includeFile(result, null, file);
-            includedCount++;
         }
+
+        Log.v(TAG, "Found " + recent.length + " recent of " + fileCount + " files in " +
+            (SystemClock.elapsedRealtime() - start) + "ms");
         return result;
     }
 
@@ -198,36 +243,16 @@ public class LoveDocumentsProvider extends DocumentsProvider {
 
         // Create a cursor with the requested projection, or the default projection.
         final MatrixCursor result = new MatrixCursor(resolveDocumentProjection(projection));
-        final File parent = getFileForDocId(rootId);
-
-        // This implementation searches file names for the query and doesn't rank search
-        // results, so we can stop as soon as we find a sufficient number of matches.  Other
-        // implementations might use other data about files, rather than the file name, to
-        // produce a match;
-
-        // Iterate through all files in the file structure under the root until we reach the
-        // desired number of matches.
-        final LinkedList<File> pending = new LinkedList<File>();
 
-        // Start by adding the parent to the list of files to be processed
-        pending.add(parent);
-
-        // Do while we still have unexamined files, and fewer than the max search results
-        while (!pending.isEmpty() && result.getCount() < MAX_SEARCH_RESULTS) {
-            // Take a file from the list of unprocessed files
-            final File file = pending.removeFirst();
-            if (file.isDirectory()) {
-                // If it's a directory, add all its children to the unprocessed list
-                File[] files = file.listFiles();
-
-                if (files != null) {
-                    Collections.addAll(pending, files);
-                }
-            } else {
-                // If it's a file and it matches, add it to the result cursor.
-                if (file.getName().toLowerCase().contains(query)) {
-                    includeFile(result, null, file);
-                }
+        // This implementation looks up the words of the query in an index of the file names
+        // under the only root, so a search doesn't walk the whole tree. Matches are ranked by
+        // how well the words match the names.
+        for (String path : mIndex.search(query, 0, MAX_SEARCH_RESULTS)) {
+            final File file = new File(mBaseDir, path);
+            try {
+                includeFile(result, null, file);
+            } catch (FileNotFoundException e) {
+                // Deleted since it was indexed
             }
         }
         return result;
@@ -264,15 +289,20 @@ public class LoveDocumentsProvider extends DocumentsProvider {
             " sortOrder: " +
             sortOrder);
 
-        final MatrixCursor result = new MatrixCursor(resolveDocumentProjection(projection));
+        final String[] columns = resolveDocumentProjection(projection);
         final File parent = getFileForDocId(parentDocumentId);
-        File[] files = parent.listFiles();
-
-        if (files != null) {
-            for (File file : files) {
-                includeFile(result, null, file);
-            }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        String[] names = parent.list();
+        if (names == null) {
+            names = new String[0];
         }
+
+        // Only the names are read here, rows are built when the client reads them
+        final DocumentListCursor result = new DocumentListCursor(columns, parent, names, sortOrder,
+            (file, stat) -> buildRow(columns, getDocIdForFile(file), file, stat));
+
+        Log.v(TAG, "Listed " + result.getCount() + " documents in " +
+            (SystemClock.elapsedRealtimeNanos() - start) / 1000 + "us");
         return result;
     }
 
@@ -324,6 +354,7 @@ public class LoveDocumentsProvider extends DocumentsProvider {
             throw new FileNotFoundException("Failed to create document with name " +
                 displayName + " and documentId " + documentId);
         }
+        mIndex.onAdded(file);
         return getDocIdForFile(file);
     }
 
@@ -353,6 +384,8 @@ public class LoveDocumentsProvider extends DocumentsProvider {
             Log.w(TAG, "Rename exception : " + e.getLocalizedMessage() + e.getCause());
             throw new FileNotFoundException("Failed to rename document. Error: " + e.getMessage());
         }
+        mIndex.onRemoved(sourceFile);
+        mIndex.onAdded(destFile);
 
         return getDocIdForFile(destFile);
     }
@@ -363,6 +396,7 @@ public class LoveDocumentsProvider extends DocumentsProvider {
         File file = getFileForDocId(documentId);
         if (file.delete()) {
             Log.i(TAG, "Deleted file with id " + documentId);
+            mIndex.onRemoved(file);
         } else {
             throw new FileNotFoundException("Failed to delete document with id " + documentId);
         }
@@ -392,6 +426,7 @@ public class LoveDocumentsProvider extends DocumentsProvider {
         if (parent.equals(file) || doesFileParentMatch) {
             if (file.delete()) {
                 Log.i(TAG, "Deleted file with id " + documentId);
+                mIndex.onRemoved(file);
             } else {
                 throw new FileNotFoundException("Failed to delete document with id " + documentId);
             }
@@ -420,51 +455,16 @@ public class LoveDocumentsProvider extends DocumentsProvider {
 
         File parent = getFileForDocId(targetParentDocumentId);
         File oldFile = getFileForDocId(sourceDocumentId);
-        File newFile = new File(parent.getPath(), oldFile.getName());
-        try {
-            int conflictId = 1;
-            while (newFile.exists()) {
-                newFile = new File(parent.getPath(), oldFile.getName() + "(" + conflictId++ + ")");
-            }
-            // Create the new File to copy into
-            boolean wasNewFileCreated = false;
-            boolean isDirectory = Document.MIME_TYPE_DIR.equals(getTypeForFile(oldFile));
-            if (isDirectory) {
-                if (newFile.mkdir()) {
-                    if (newFile.setWritable(true) && newFile.setReadable(true)) {
-                        wasNewFileCreated = true;
-                    }
-                }
-            } else {
-                if (newFile.createNewFile()) {
-                    if (newFile.setWritable(true) && newFile.setReadable(true)) {
-                        wasNewFileCreated = true;
-                    }
-                }
-            }
-
-            if (!wasNewFileCreated) {
-                throw new FileNotFoundException("Failed to copy document " + sourceDocumentId +
-                    ". Could not create new file.");
-            }
+        File newFile = getFreeFile(parent, oldFile.getName());
 
-            if (!isDirectory) {
-                // Copy the bytes into the new file
-                try (FileInputStream inStream = new FileInputStream(oldFile)) {
-                    try (FileOutputStream outStream = new FileOutputStream(newFile)) {
-                        // Transfer bytes from in to out
-                        byte[] buf = new byte[16384]; // disk: 8-64k
-                        int len;
-                        while ((len = inStream.read(buf)) > 0) {
-                            outStream.write(buf, 0, len);
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
+        // DocumentsProvider.copyDocument isn't given a CancellationSignal to pass on
+        try {
+            new DocumentCopier(null).copy(oldFile, newFile);
+        } catch (IOException | OperationCanceledException e) {
             throw new FileNotFoundException("Failed to copy document: " + sourceDocumentId +
                 ". " + e.getMessage());
         }
+        mIndex.onAdded(newFile);
         return getDocIdForFile(newFile);
     }
 
@@ -472,16 +472,49 @@ public class LoveDocumentsProvider extends DocumentsProvider {
     public String moveDocument(String sourceDocumentId, String sourceParentDocumentId,
                                String targetParentDocumentId) throws FileNotFoundException {
         Log.v(TAG, "moveDocument");
+        if (!isChildDocument(sourceParentDocumentId, sourceDocumentId)) {
+            throw new FileNotFoundException("Failed to move document with id " +
+                sourceDocumentId + ". Parent is not: " + sourceParentDocumentId);
+        }
+
+        File parent = getFileForDocId(targetParentDocumentId);
+        File oldFile = getFileForDocId(sourceDocumentId);
+        File newFile = getFreeFile(parent, oldFile.getName());
+
         try {
-            // Copy document, insisting that the parent is correct
-            String newDocumentId = copyDocument(sourceDocumentId, sourceParentDocumentId,
-                targetParentDocumentId);
-            // Remove old document
-            removeDocument(sourceDocumentId, sourceParentDocumentId);
-            return newDocumentId;
-        } catch (FileNotFoundException e) {
-            throw new FileNotFoundException("Failed to move document " + sourceDocumentId);
+            // Moves whole directories at once, everything is on the same file system unless
+            // the base directory has mounts below it
+            Os.rename(oldFile.getPath(), newFile.getPath());
+        } catch (ErrnoException e) {
+            if (e.errno != OsConstants.EXDEV) {
+                throw new FileNotFoundException("Failed to move document " + sourceDocumentId +
+                    ". " + e.getMessage());
+            }
+
+            try {
+                new DocumentCopier(null).copy(oldFile, newFile);
+            } catch (IOException | OperationCanceledException copyException) {
+                throw new FileNotFoundException("Failed to move document " + sourceDocumentId +
+                    ". " + copyException.getMessage());
+            }
+            DocumentCopier.deleteRecursively(oldFile);
+        }
+
+        mIndex.onRemoved(oldFile);
+        mIndex.onAdded(newFile);
+        return getDocIdForFile(newFile);
+    }
+
+    /**
+     * @return a file named after the given name which doesn't exist yet in the directory
+     */
+    private static File getFreeFile(File parent, String name) {
+        File file = new File(parent.getPath(), name);
+        int conflictId = 1;
+        while (file.exists()) {
+            file = new File(parent.getPath(), name + "(" + conflictId++ + ")");
         }
+        return file;
     }
 
     @Override
@@ -490,6 +523,76 @@ public class LoveDocumentsProvider extends DocumentsProvider {
         return getTypeForFile(file);
     }
 
+    // The heap of recent files keeps the least recently modified file at its root.
+
+    private static void siftUp(long[] times, File[] files, int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (times[parent] <= times[position]) {
+                break;
+            }
+            swap(times, files, parent, position);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(long[] times, File[] files, int position, int size) {
+        while (true) {
+            int least = position;
+            int left = position * 2 + 1;
+            int right = left + 1;
+
+            if (left < size && times[left] < times[least]) {
+                least = left;
+            }
+            if (right < size && times[right] < times[least]) {
+                least = right;
+            }
+            if (least == position) {
+                return;
+            }
+
+            swap(times, files, least, position);
+            position = least;
+        }
+    }
+
+    private static void swap(long[] times, File[] files, int a, int b) {
+        long time = times[a];
+        times[a] = times[b];
+        times[b] = time;
+
+        File file = files[a];
+        files[a] = files[b];
+        files[b] = file;
+    }
+
+    /**
+     * Check if the app can write a file. Files the app owns are checked from their mode, which
+     * saves a syscall.
+     */
+    private boolean canWrite(String path, StructStat stat) {
+        if (stat.st_uid == mUid) {
+            return (stat.st_mode & OsConstants.S_IWUSR) != 0;
+        }
+
+        try {
+            return Os.access(path, OsConstants.W_OK);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the last modified time of a file in milliseconds, like {@link File#lastModified()}
+     */
+    static long getLastModified(StructStat stat) {
+        if (SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return stat.st_mtim.tv_sec * 1000L + stat.st_mtim.tv_nsec / 1000000L;
+        }
+        return stat.st_mtime * 1000L;
+    }
+
     /**
      * @param projection the requested root column projection
      * @return either the requested root column projection, or the default projection if the
@@ -527,17 +630,29 @@ public class LoveDocumentsProvider extends DocumentsProvider {
         final int lastDot = name.lastIndexOf('.');
         if (lastDot >= 0) {
             final String extension = name.substring(lastDot + 1);
-            if (extension.equals("love")) {
-                return "application/x-love-game";
-            }
-            final String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-            if (mime != null) {
-                return mime;
+            String mime = MIME_TYPES.get(extension);
+            if (mime == null) {
+                mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+                if (mime == null) {
+                    mime = "application/octet-stream";
+                }
+                MIME_TYPES.put(extension, mime);
             }
+            return mime;
         }
         return "application/octet-stream";
     }
 
+    private String getAppLabel() {
+        String label = mAppLabel;
+        if (label == null) {
+            Context context = Objects.requireNonNull(getContext());
+            label = context.getApplicationInfo().loadLabel(context.getPackageManager()).toString();
+            mAppLabel = label;
+        }
+        return label;
+    }
+
     /**
      * Get the document ID given a File.  The document id must be consistent across time.  Other
      * applications may save the ID and use it to reference documents later.
@@ -574,21 +689,67 @@ public class LoveDocumentsProvider extends DocumentsProvider {
      * @param file   the File object representing the desired file (may be null if given docID)
      */
     private void includeFile(MatrixCursor result, String docId, File file)
+        throws FileNotFoundException {
+        result.addRow(getRow(result.getColumnNames(), docId, file, null));
+    }
+
+    /**
+     * Build the representation of a file.
+     *
+     * @param columns the columns to build
+     * @param docId   the document ID representing the desired file (may be null if given file)
+     * @param file    the File object representing the desired file (may be null if given docID)
+     * @param stat    the stat of the file, or null to stat it
+     * @return the values of the columns
+     */
+    private Object[] getRow(String[] columns, String docId, File file, StructStat stat)
         throws FileNotFoundException {
         if (docId == null) {
             docId = getDocIdForFile(file);
         } else {
-            file = getFileForDocId(docId);
+            // Whether it exists is known from the stat
+            file = resolveDocId(docId);
+        }
+
+        // Everything about the file comes from a single stat
+        final String path = file.getAbsolutePath();
+        if (stat == null) {
+            try {
+                stat = Os.stat(path);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.ENOENT) {
+                    throw new FileNotFoundException("Missing file for " + docId + " at " + file);
+                }
+                throw new FileNotFoundException("Failed to stat " + file + " for " + docId + ": " + e.getMessage());
+            }
         }
 
+        return buildRow(columns, docId, file, stat);
+    }
+
+    /**
+     * Build the representation of a file from its stat.
+     *
+     * @param columns the columns to build
+     * @param docId   the document ID representing the file
+     * @param file    the file
+     * @param stat    the stat of the file, or null if it was removed, which leaves its size and
+     *                last modified time null and its flags empty
+     * @return the values of the columns
+     */
+    private Object[] buildRow(String[] columns, String docId, File file, StructStat stat) {
+        final String path = file.getAbsolutePath();
+        final boolean isDirectory = stat != null && OsConstants.S_ISDIR(stat.st_mode);
         int flags = 0;
 
-        if (file.isDirectory()) {
+        if (stat == null) {
+            // Nothing can be done with a removed file
+        } else if (isDirectory) {
             // Add FLAG_DIR_SUPPORTS_CREATE if the file is a writable directory.
-            if (file.isDirectory() && file.canWrite()) {
+            if (canWrite(path, stat)) {
                 flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
             }
-        } else if (file.canWrite()) {
+        } else if (canWrite(path, stat)) {
             // If the file is writable set FLAG_SUPPORTS_WRITE and
             // FLAG_SUPPORTS_DELETE
             flags |= Document.FLAG_SUPPORTS_WRITE;
@@ -603,31 +764,43 @@ public class LoveDocumentsProvider extends DocumentsProvider {
         }
 
         final String displayName = file.getName();
-        final String mimeType = getTypeForFile(file);
+        final String mimeType = isDirectory ? Document.MIME_TYPE_DIR : getTypeForName(displayName);
 
-        if (mimeType.startsWith("image/")) {
+        if (stat != null && mimeType.startsWith("image/")) {
             // Allow the image to be represented by a thumbnail rather than an icon
             flags |= Document.FLAG_SUPPORTS_THUMBNAIL;
         }
 
-        final MatrixCursor.RowBuilder row = result.newRow();
-        row.add(Document.COLUMN_DOCUMENT_ID, docId);
-        if (file.getAbsolutePath().equals(mBaseDir.getAbsolutePath())) {
-            row.add(Document.COLUMN_DISPLAY_NAME, Objects.requireNonNull(getContext()).getApplicationInfo().loadLabel(getContext().getPackageManager()).toString());
-        } else {
-            row.add(Document.COLUMN_DISPLAY_NAME, displayName);
-        }
-        row.add(Document.COLUMN_SIZE, file.length());
-        row.add(Document.COLUMN_MIME_TYPE, mimeType);
-        row.add(Document.COLUMN_LAST_MODIFIED, file.lastModified());
-        row.add(Document.COLUMN_FLAGS, flags);
-
-        // Add a custom icon
-        if (mimeType.equals("application/x-love-game")) {
-            row.add(Document.COLUMN_ICON, R.drawable.love);
-        } else {
-            row.add(Document.COLUMN_ICON, null);
+        final Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            switch (columns[i]) {
+                case Document.COLUMN_DOCUMENT_ID:
+                    row[i] = docId;
+                    break;
+                case Document.COLUMN_DISPLAY_NAME:
+                    row[i] = path.equals(mBasePath) ? getAppLabel() : displayName;
+                    break;
+                case Document.COLUMN_SIZE:
+                    row[i] = stat != null ? stat.st_size : null;
+                    break;
+                case Document.COLUMN_MIME_TYPE:
+                    row[i] = mimeType;
+                    break;
+                case Document.COLUMN_LAST_MODIFIED:
+                    row[i] = stat != null ? getLastModified(stat) : null;
+                    break;
+                case Document.COLUMN_FLAGS:
+                    row[i] = flags;
+                    break;
+                case Document.COLUMN_ICON:
+                    // Add a custom icon
+                    row[i] = mimeType.equals(LOVE_MIME_TYPE) ? R.drawable.love : null;
+                    break;
+                default:
+                    break;
+            }
         }
+        return row;
     }
 
     /**
@@ -637,20 +810,27 @@ public class LoveDocumentsProvider extends DocumentsProvider {
      * @return a File represented by the given document ID
      */
     private File getFileForDocId(String docId) throws FileNotFoundException {
-        File target = mBaseDir;
+        final File target = resolveDocId(docId);
+        if (!target.exists()) {
+            throw new FileNotFoundException("Missing file for " + docId + " at " + target);
+        }
+        return target;
+    }
+
+    /**
+     * Translate a document ID into a File object, without checking that the file exists.
+     *
+     * @param docId the document ID representing the desired file
+     * @return a File represented by the given document ID
+     */
+    private File resolveDocId(String docId) throws FileNotFoundException {
         if (docId.equals(ROOT)) {
-            return target;
+            return mBaseDir;
         }
         final int splitIndex = docId.indexOf(':', 1);
         if (splitIndex < 0) {
             throw new FileNotFoundException("Missing root for " + docId);
-        } else {
-            final String path = docId.substring(splitIndex + 1);
-            target = new File(target, path);
-            if (!target.exists()) {
-                throw new FileNotFoundException("Missing file for " + docId + " at " + target);
-            }
-            return target;
         }
+        return new File(mBaseDir, docId.substring(splitIndex + 1));
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2006-2024 LOVE Development Team
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty.  In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ *    claim that you wrote the original software. If you use this software
+ *    in a product, an acknowledgment in the product documentation would be
+ *    appreciated but is not required.
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ *    misrepresented as being the original software.
+ * 3. This notice may not be removed or altered from any source distribution.
+ */
+
+package org.love2d.android;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the native libraries of {@link GameActivity} ahead of time, so launching the first game
+ * doesn't pay for loading and relocating them.
+ * <p>
+ * GameActivity runs in the launcher process, and a library is only loaded once per process, so
+ * its own load of the libraries then returns right away. Loading is started at most once, on a
+ * background thread.
+ */
+class RuntimeWarmup {
+    private static final String TAG = "RuntimeWarmup";
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+    private static volatile boolean done = false;
+
+    /**
+     * Start loading the libraries unless it was started already.
+     *
+     * @param reason what triggered the warm-up, for the logs
+     */
+    static void start(String reason) {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            long start = SystemClock.uptimeMillis();
+
+            for (String library : GameActivity.LIBRARIES) {
+                long libraryStart = SystemClock.uptimeMillis();
+                try {
+                    System.loadLibrary(library);
+                } catch (UnsatisfiedLinkError | SecurityException e) {
+                    // GameActivity reports broken libraries itself when it loads them
+                    Log.w(TAG, "Failed to load " + library, e);
+                    return;
+                }
+                Log.d(TAG, "Loaded " + library + " in " + (SystemClock.uptimeMillis() - libraryStart) + "ms");
+            }
+
+            done = true;
+            Log.d(TAG, "Loaded the game runtime on " + reason + " in " + (SystemClock.uptimeMillis() - start) + "ms");
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true if all libraries are loaded
+     */
+    static boolean isDone() {
+        return done;
+    }
+}